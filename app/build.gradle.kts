@@ -50,4 +50,5 @@ dependencies {
     implementation(libs.guava)
     testImplementation(libs.junit)
     androidTestImplementation(libs.ext.junit)
+    androidTestImplementation(libs.espresso.core)
 }
\ No newline at end of file
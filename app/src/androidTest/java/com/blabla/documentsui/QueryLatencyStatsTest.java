@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.blabla.documentsui;
+
+import static com.blabla.documentsui.MultiRootDocumentsLoader.MAX_FIRST_PASS_WAIT_MILLIS;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+
+@RunWith(AndroidJUnit4.class)
+public class QueryLatencyStatsTest {
+
+    private static final String PREF_NAME = "QueryLatencyStatsTest";
+    private static final String AUTHORITY = "com.example.authority";
+    private static final String OTHER_AUTHORITY = "com.example.other";
+    private static final int SAMPLES = 10;
+
+    private SharedPreferences mPrefs;
+    private QueryLatencyStats mStats;
+
+    @Before
+    public void setUp() {
+        final Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        mPrefs = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
+        mPrefs.edit().clear().commit();
+        mStats = new QueryLatencyStats(mPrefs);
+    }
+
+    @After
+    public void tearDown() {
+        mPrefs.edit().clear().commit();
+    }
+
+    @Test
+    public void testIsWaitedFor_WithoutSamples() {
+        assertTrue(mStats.isWaitedFor(AUTHORITY, MAX_FIRST_PASS_WAIT_MILLIS));
+    }
+
+    @Test
+    public void testIsWaitedFor_JustAboveBucketBelowMaxWait() {
+        record(AUTHORITY, 513);
+
+        assertEquals(1024, mStats.getExpectedLatencyMillis(AUTHORITY));
+        assertTrue(mStats.isWaitedFor(AUTHORITY, MAX_FIRST_PASS_WAIT_MILLIS));
+    }
+
+    @Test
+    public void testIsWaitedFor_AtMaxWaitBucketBound() {
+        record(AUTHORITY, MAX_FIRST_PASS_WAIT_MILLIS);
+
+        assertEquals(1024, mStats.getExpectedLatencyMillis(AUTHORITY));
+        assertTrue(mStats.isWaitedFor(AUTHORITY, MAX_FIRST_PASS_WAIT_MILLIS));
+    }
+
+    @Test
+    public void testIsWaitedFor_AboveMaxWaitBucketBound() {
+        record(AUTHORITY, MAX_FIRST_PASS_WAIT_MILLIS + 1);
+
+        assertEquals(2048, mStats.getExpectedLatencyMillis(AUTHORITY));
+        assertFalse(mStats.isWaitedFor(AUTHORITY, MAX_FIRST_PASS_WAIT_MILLIS));
+    }
+
+    @Test
+    public void testGetFirstPassWaitMillis_SkipsSlowAuthorities() {
+        record(AUTHORITY, 1000);
+        record(OTHER_AUTHORITY, 3000);
+
+        assertEquals(1024, mStats.getFirstPassWaitMillis(
+                Arrays.asList(AUTHORITY, OTHER_AUTHORITY), MAX_FIRST_PASS_WAIT_MILLIS));
+    }
+
+    @Test
+    public void testGetExpectedLatencyMillis_ReadBackFromPreferences() {
+        record(AUTHORITY, 1000);
+
+        final QueryLatencyStats restored = new QueryLatencyStats(mPrefs);
+        assertEquals(1024, restored.getExpectedLatencyMillis(AUTHORITY));
+    }
+
+    private void record(String authority, long latencyMillis) {
+        for (int i = 0; i < SAMPLES; i++) {
+            mStats.record(authority, latencyMillis);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.blabla.documentsui;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.net.Uri;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.blabla.documentsui.ThumbnailCache.Result;
+import com.blabla.documentsui.base.UserId;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+@RunWith(AndroidJUnit4.class)
+public class ThumbnailCacheTest {
+
+    private static final UserId USER = UserId.DEFAULT_USER;
+    private static final int[] SIZES = { 32, 64, 96, 128 };
+    private static final int URI_COUNT = 64;
+    // Holds a few dozen thumbnails, far fewer than are put, so that puts keep evicting.
+    private static final int CACHE_SIZE_BYTES = 128 * 128 * 4 * 8;
+
+    private static final int WRITER_THREADS = 4;
+    private static final int OPERATIONS_PER_WRITER = 5000;
+
+    private final Uri[] mUris = new Uri[URI_COUNT];
+    private final Bitmap[] mBitmaps = new Bitmap[SIZES.length];
+
+    private ThumbnailCache mCache;
+
+    @Before
+    public void setUp() {
+        mCache = new ThumbnailCache(CACHE_SIZE_BYTES);
+        for (int i = 0; i < URI_COUNT; i++) {
+            mUris[i] = Uri.parse("content://com.example.authority/document/" + i);
+        }
+        for (int i = 0; i < SIZES.length; i++) {
+            mBitmaps[i] = Bitmap.createBitmap(SIZES[i], SIZES[i], Bitmap.Config.ARGB_8888);
+        }
+    }
+
+    @Test
+    public void testGetThumbnail_ClosestSize() {
+        final Uri uri = mUris[0];
+        mCache.putThumbnail(uri, USER, size(0), mBitmaps[0], 1);
+        mCache.putThumbnail(uri, USER, size(2), mBitmaps[2], 1);
+
+        assertResult(mCache.getThumbnail(uri, USER, size(2)), Result.CACHE_HIT_EXACT, 2);
+        assertResult(mCache.getThumbnail(uri, USER, size(1)), Result.CACHE_HIT_LARGER, 2);
+        assertResult(mCache.getThumbnail(uri, USER, size(3)), Result.CACHE_HIT_SMALLER, 2);
+
+        mCache.removeUri(uri, USER);
+        final Result result = mCache.getThumbnail(uri, USER, size(2));
+        assertEquals(Result.CACHE_MISS, result.getStatus());
+        result.recycle();
+        assertTrue(mCache.isSizeIndexConsistent());
+    }
+
+    /**
+     * Puts and removes thumbnails from several threads while one thread, standing in for the UI
+     * thread, reads them. Puts evict other thumbnails all the time.
+     */
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> writers = new ArrayList<>();
+
+        for (int t = 0; t < WRITER_THREADS; t++) {
+            final Random random = new Random(t);
+            writers.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < OPERATIONS_PER_WRITER; i++) {
+                        final Uri uri = mUris[random.nextInt(URI_COUNT)];
+                        if (random.nextInt(16) == 0) {
+                            mCache.removeUri(uri, USER);
+                        } else {
+                            final int size = random.nextInt(SIZES.length);
+                            mCache.putThumbnail(uri, USER, size(size), mBitmaps[size], i);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }));
+        }
+
+        // Results are pooled for the UI thread, so all reads happen on one thread.
+        final Thread reader = new Thread(() -> {
+            final Random random = new Random(WRITER_THREADS);
+            try {
+                start.await();
+                while (writing.get()) {
+                    final int size = random.nextInt(SIZES.length);
+                    final Result result = mCache.getThumbnail(
+                            mUris[random.nextInt(URI_COUNT)], USER, size(size));
+                    try {
+                        if (result.isHit()) {
+                            // The index and the cache agree on the size of the thumbnail.
+                            assertNotNull(result.getThumbnail());
+                            assertEquals(result.getSize().x, result.getThumbnail().getWidth());
+                        }
+                    } finally {
+                        result.recycle();
+                    }
+                }
+            } catch (Throwable e) {
+                failures.add(e);
+            }
+        });
+
+        for (Thread writer : writers) {
+            writer.start();
+        }
+        reader.start();
+        start.countDown();
+        for (Thread writer : writers) {
+            writer.join(TimeUnit.MINUTES.toMillis(1));
+            assertFalse("Writer didn't finish", writer.isAlive());
+        }
+        writing.set(false);
+        reader.join(TimeUnit.MINUTES.toMillis(1));
+
+        if (!failures.isEmpty()) {
+            throw new AssertionError("Concurrent access failed", failures.peek());
+        }
+        assertTrue(mCache.isSizeIndexConsistent());
+
+        // Dropping all thumbnails empties the index as well.
+        mCache.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        assertTrue(mCache.isSizeIndexConsistent());
+    }
+
+    private static Point size(int index) {
+        return new Point(SIZES[index], SIZES[index]);
+    }
+
+    private void assertResult(Result result, int status, int sizeIndex) {
+        try {
+            assertEquals(status, result.getStatus());
+            assertEquals(SIZES[sizeIndex], result.getSize().x);
+            assertEquals(mBitmaps[sizeIndex], result.getThumbnail());
+        } finally {
+            result.recycle();
+        }
+    }
+}
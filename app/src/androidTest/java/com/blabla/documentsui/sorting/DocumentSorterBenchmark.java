@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.blabla.documentsui.sorting;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Measures {@link DocumentSorter} against the binary insertion sort it replaced, see
+ * {@link OldBinarySort}. Each sort is warmed up first, then run repeatedly, alternating between
+ * the two so that both see the same conditions. The median time of each is logged with tag
+ * {@value #TAG}, e.g. {@code adb logcat -s DocumentSorterBenchmark}.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DocumentSorterBenchmark {
+
+    private static final String TAG = "DocumentSorterBenchmark";
+
+    private static final int[] ROW_COUNTS = { 100, 1000, 5000, 20000 };
+    private static final int WARMUP_ITERATIONS = 5;
+    // Odd, so that the median is one of the measured times.
+    private static final int MEASURED_ITERATIONS = 21;
+
+    @Test
+    public void benchmarkSortStrings() {
+        final Random random = new Random(42);
+        for (int count : ROW_COUNTS) {
+            final String[] values = new String[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = randomName(random);
+            }
+            final boolean[] isDirs = randomDirs(random, count);
+            final String[] ids = randomIds(random, count);
+            final int direction = SortDimension.SORT_DIRECTION_ASCENDING;
+
+            compare("strings", count,
+                    () -> OldBinarySort.sortStrings(values, isDirs, ids, direction),
+                    () -> DocumentSorter.forStrings(
+                            values, isDirs, ids, direction, /* keyCache= */ null).sort());
+        }
+    }
+
+    @Test
+    public void benchmarkSortLongs() {
+        final Random random = new Random(43);
+        for (int count : ROW_COUNTS) {
+            final long[] values = new long[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = random.nextLong();
+            }
+            final boolean[] isDirs = randomDirs(random, count);
+            final String[] ids = randomIds(random, count);
+            final int direction = SortDimension.SORT_DIRECTION_ASCENDING;
+
+            compare("longs", count,
+                    () -> OldBinarySort.sortLongs(values, isDirs, ids, direction),
+                    () -> DocumentSorter.forLongs(values, isDirs, ids, direction).sort());
+        }
+    }
+
+    private static void compare(String kind, int count, Supplier<int[]> oldSort,
+            Supplier<int[]> newSort) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            oldSort.get();
+            newSort.get();
+        }
+
+        final long[] oldNanos = new long[MEASURED_ITERATIONS];
+        final long[] newNanos = new long[MEASURED_ITERATIONS];
+        int[] oldResult = null;
+        int[] newResult = null;
+        for (int i = 0; i < MEASURED_ITERATIONS; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            oldResult = oldSort.get();
+            oldNanos[i] = SystemClock.elapsedRealtimeNanos() - start;
+
+            start = SystemClock.elapsedRealtimeNanos();
+            newResult = newSort.get();
+            newNanos[i] = SystemClock.elapsedRealtimeNanos() - start;
+        }
+        // Uses the results, and makes sure like is compared with like.
+        assertArrayEquals(kind + ", count=" + count, oldResult, newResult);
+
+        final long oldMedian = median(oldNanos);
+        final long newMedian = median(newNanos);
+        Log.i(TAG, "Sorted " + count + " " + kind + ": binary insertion sort "
+                + oldMedian / 1000 + "us, DocumentSorter " + newMedian / 1000 + "us (median of "
+                + MEASURED_ITERATIONS + "), " + String.format(Locale.US, "%.1fx",
+                        (double) oldMedian / Math.max(1, newMedian)));
+    }
+
+    private static long median(long[] nanos) {
+        final long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static String randomName(Random random) {
+        final int length = 1 + random.nextInt(16);
+        final StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            final char c = (char) ('a' + random.nextInt(26));
+            builder.append(random.nextBoolean() ? Character.toUpperCase(c) : c);
+        }
+        return builder.toString();
+    }
+
+    private static boolean[] randomDirs(Random random, int count) {
+        final boolean[] isDirs = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            isDirs[i] = random.nextInt(5) == 0;
+        }
+        return isDirs;
+    }
+
+    private static String[] randomIds(Random random, int count) {
+        final String[] ids = new String[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = Integer.toHexString(random.nextInt(Integer.MAX_VALUE)) + ":" + i;
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.blabla.documentsui.sorting;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import com.blabla.documentsui.base.Shared;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+
+/**
+ * Compares {@link DocumentSorter} with the binary insertion sort SortingCursorWrapper used
+ * before, on randomized rows: the order has to be the one of the old comparator. See
+ * {@link DocumentSorterBenchmark} for how long both take.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DocumentSorterTest {
+
+    // Below and above DocumentSorter.PARALLEL_THRESHOLD.
+    private static final int[] ROW_COUNTS = { 1, 2, 17, 500, 5000, 20000 };
+    private static final int[] DIRECTIONS = {
+            SortDimension.SORT_DIRECTION_ASCENDING, SortDimension.SORT_DIRECTION_DESCENDING
+    };
+    // Few distinct values, so that there are many ties for the document ID to break.
+    private static final String[] NAME_PARTS = {
+            "", "a", "B", "b", "\u00C4b", "10", "9", "z", " "
+    };
+
+    @Test
+    public void testSortStrings_MatchesOldComparator() {
+        final Random random = new Random(42);
+        for (int count : ROW_COUNTS) {
+            for (int direction : DIRECTIONS) {
+                final String[] values = new String[count];
+                for (int i = 0; i < count; i++) {
+                    values[i] = randomName(random);
+                }
+                final boolean[] isDirs = randomDirs(random, count);
+                final String[] ids = randomIds(random, count);
+
+                final int[] actual = DocumentSorter.forStrings(
+                        values, isDirs, ids, direction, /* keyCache= */ null).sort();
+
+                final int[] expected = sortWithComparator(count, (lhs, rhs) -> compare(
+                        isDirs, ids, lhs, rhs, direction,
+                        Shared.compareToIgnoreCaseNullable(values[lhs], values[rhs])));
+                assertArrayEquals("count=" + count + ", direction=" + direction,
+                        expected, actual);
+                assertArrayEquals("count=" + count + ", direction=" + direction,
+                        OldBinarySort.sortStrings(values, isDirs, ids, direction), actual);
+            }
+        }
+    }
+
+    @Test
+    public void testSortLongs_MatchesOldComparator() {
+        final Random random = new Random(43);
+        for (int count : ROW_COUNTS) {
+            for (int direction : DIRECTIONS) {
+                final long[] values = new long[count];
+                for (int i = 0; i < count; i++) {
+                    // Mostly ties, plus the extremes.
+                    final int pick = random.nextInt(20);
+                    values[i] = (pick == 0) ? Long.MAX_VALUE
+                            : (pick == 1) ? -1
+                            : random.nextInt(8);
+                }
+                final boolean[] isDirs = randomDirs(random, count);
+                final String[] ids = randomIds(random, count);
+
+                final int[] actual = DocumentSorter.forLongs(values, isDirs, ids, direction)
+                        .sort();
+
+                final int[] expected = sortWithComparator(count, (lhs, rhs) -> compare(
+                        isDirs, ids, lhs, rhs, direction,
+                        Long.compare(values[lhs], values[rhs])));
+                assertArrayEquals("count=" + count + ", direction=" + direction,
+                        expected, actual);
+                assertArrayEquals("count=" + count + ", direction=" + direction,
+                        OldBinarySort.sortLongs(values, isDirs, ids, direction), actual);
+            }
+        }
+    }
+
+    /**
+     * The comparison of the old binary insertion sort: directories first, then the values in
+     * the sort direction, then the document ID.
+     */
+    private static int compare(boolean[] isDirs, String[] ids, int lhs, int rhs, int direction,
+            int valueCompare) {
+        if (isDirs[lhs] != isDirs[rhs]) {
+            return isDirs[lhs] ? -1 : 1;
+        }
+        int compare = (direction == SortDimension.SORT_DIRECTION_ASCENDING)
+                ? valueCompare
+                : -valueCompare;
+        if (compare == 0) {
+            compare = ids[lhs].compareTo(ids[rhs]);
+        }
+        return compare;
+    }
+
+    private static int[] sortWithComparator(int count, Comparator<Integer> comparator) {
+        final Integer[] positions = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            positions[i] = i;
+        }
+        Arrays.sort(positions, comparator);
+        final int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = positions[i];
+        }
+        return result;
+    }
+
+    private static String randomName(Random random) {
+        if (random.nextInt(20) == 0) {
+            return null;
+        }
+        final StringBuilder builder = new StringBuilder();
+        final int parts = random.nextInt(3);
+        for (int i = 0; i < parts; i++) {
+            builder.append(NAME_PARTS[random.nextInt(NAME_PARTS.length)]);
+        }
+        return builder.toString();
+    }
+
+    private static boolean[] randomDirs(Random random, int count) {
+        final boolean[] isDirs = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            isDirs[i] = random.nextInt(5) == 0;
+        }
+        return isDirs;
+    }
+
+    // Unique, as document IDs within a directory are.
+    private static String[] randomIds(Random random, int count) {
+        final String[] ids = new String[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = Integer.toHexString(random.nextInt(Integer.MAX_VALUE)) + ":" + i;
+        }
+        return ids;
+    }
+}
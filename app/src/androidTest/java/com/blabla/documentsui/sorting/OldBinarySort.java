@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.blabla.documentsui.sorting;
+
+import com.blabla.documentsui.base.Shared;
+
+/**
+ * The binary insertion sort SortingCursorWrapper used before {@link DocumentSorter}, to compare
+ * the two. Unlike the original, the document IDs are moved along with the values, so that ties
+ * are broken by the ID of the row rather than of whichever row was there before.
+ */
+final class OldBinarySort {
+
+    private OldBinarySort() {}
+
+    /** Returns the positions of the rows in sorted order. */
+    static int[] sortStrings(String[] values, boolean[] isDirs, String[] ids, int direction) {
+        final String[] sortKey = values.clone();
+        final boolean[] dirs = isDirs.clone();
+        final String[] keyIds = ids.clone();
+        final int[] positions = identity(values.length);
+
+        for (int i = 1; i < positions.length; i++) {
+            final int pivotPosition = positions[i];
+            final String pivotValue = sortKey[i];
+            final boolean pivotIsDir = dirs[i];
+            final String pivotId = keyIds[i];
+            int left = 0;
+            int right = i;
+            while (left < right) {
+                final int mid = (left + right) >>> 1;
+                int compare;
+                if (pivotIsDir != dirs[mid]) {
+                    compare = pivotIsDir ? -1 : 1;
+                } else {
+                    compare = Shared.compareToIgnoreCaseNullable(pivotValue, sortKey[mid]);
+                    if (direction == SortDimension.SORT_DIRECTION_DESCENDING) {
+                        compare = -compare;
+                    }
+                }
+                if (compare == 0) {
+                    compare = pivotId.compareTo(keyIds[mid]);
+                }
+                if (compare < 0) {
+                    right = mid;
+                } else {
+                    left = mid + 1;
+                }
+            }
+            final int n = i - left;
+            System.arraycopy(positions, left, positions, left + 1, n);
+            System.arraycopy(sortKey, left, sortKey, left + 1, n);
+            System.arraycopy(dirs, left, dirs, left + 1, n);
+            System.arraycopy(keyIds, left, keyIds, left + 1, n);
+            positions[left] = pivotPosition;
+            sortKey[left] = pivotValue;
+            dirs[left] = pivotIsDir;
+            keyIds[left] = pivotId;
+        }
+        return positions;
+    }
+
+    /** Returns the positions of the rows in sorted order. */
+    static int[] sortLongs(long[] values, boolean[] isDirs, String[] ids, int direction) {
+        final long[] sortKey = values.clone();
+        final boolean[] dirs = isDirs.clone();
+        final String[] keyIds = ids.clone();
+        final int[] positions = identity(values.length);
+
+        for (int i = 1; i < positions.length; i++) {
+            final int pivotPosition = positions[i];
+            final long pivotValue = sortKey[i];
+            final boolean pivotIsDir = dirs[i];
+            final String pivotId = keyIds[i];
+            int left = 0;
+            int right = i;
+            while (left < right) {
+                final int mid = (left + right) >>> 1;
+                int compare;
+                if (pivotIsDir != dirs[mid]) {
+                    compare = pivotIsDir ? -1 : 1;
+                } else {
+                    compare = Long.compare(pivotValue, sortKey[mid]);
+                    if (direction == SortDimension.SORT_DIRECTION_DESCENDING) {
+                        compare = -compare;
+                    }
+                }
+                if (compare == 0) {
+                    compare = pivotId.compareTo(keyIds[mid]);
+                }
+                if (compare < 0) {
+                    right = mid;
+                } else {
+                    left = mid + 1;
+                }
+            }
+            final int n = i - left;
+            System.arraycopy(positions, left, positions, left + 1, n);
+            System.arraycopy(sortKey, left, sortKey, left + 1, n);
+            System.arraycopy(dirs, left, dirs, left + 1, n);
+            System.arraycopy(keyIds, left, keyIds, left + 1, n);
+            positions[left] = pivotPosition;
+            sortKey[left] = pivotValue;
+            dirs[left] = pivotIsDir;
+            keyIds[left] = pivotId;
+        }
+        return positions;
+    }
+
+    private static int[] identity(int count) {
+        final int[] positions = new int[count];
+        for (int i = 0; i < count; i++) {
+            positions[i] = i;
+        }
+        return positions;
+    }
+}
@@ -26,7 +26,6 @@ import android.content.Intent;
 import android.content.IntentSender;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
-import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Parcelable;
@@ -208,6 +207,16 @@ public abstract class AbstractActionHandler<T extends FragmentActivity & CommonA
 
     @Override
     public void refreshDocument(DocumentInfo doc, BooleanConsumer callback) {
+        // Providers notify about the refreshed contents, which should show up right away rather
+        // than being merged with other notifications.
+        final Loader<DirectoryResult> loader =
+                mActivity.getSupportLoaderManager().getLoader(LOADER_ID);
+        if (loader instanceof DirectoryLoader) {
+            ((DirectoryLoader) loader).onRefreshRequested();
+        } else if (loader instanceof MultiRootDocumentsLoader) {
+            ((MultiRootDocumentsLoader) loader).onRefreshRequested();
+        }
+
         RefreshTask task = new RefreshTask(
                 mInjector.features,
                 mState,
@@ -293,15 +302,15 @@ public abstract class AbstractActionHandler<T extends FragmentActivity & CommonA
 
         // Exclude disabled files
         List<String> enabled = new ArrayList<>();
+        DocumentTable table = model.getTable();
         for (String id : model.getModelIds()) {
-            Cursor cursor = model.getItem(id);
-            if (cursor == null) {
-                Log.w(TAG, "Skipping selection. Can't obtain cursor for modeId: " + id);
+            int row = model.getItemIndex(id);
+            if (row == -1) {
+                Log.w(TAG, "Skipping selection. Can't obtain row for modeId: " + id);
                 continue;
             }
-            String docMimeType = DocumentInfo.getCursorString(
-                    cursor, DocumentsContract.Document.COLUMN_MIME_TYPE);
-            int docFlags = DocumentInfo.getCursorInt(cursor, DocumentsContract.Document.COLUMN_FLAGS);
+            String docMimeType = table.getMimeType(row);
+            int docFlags = table.getFlags(row);
             if (mInjector.config.isDocumentEnabled(docMimeType, docFlags, mState)) {
                 enabled.add(id);
             }
@@ -775,6 +784,37 @@ public abstract class AbstractActionHandler<T extends FragmentActivity & CommonA
         }
     }
 
+    @Override
+    public void sortDocumentsForCurrentStack() {
+        if (!mLoaderSemaphore.tryAcquire()) {
+            return;
+        }
+
+        final Loader<DirectoryResult> loader =
+                mActivity.getSupportLoaderManager().getLoader(LOADER_ID);
+        final boolean resorting;
+        if (loader instanceof DirectoryLoader) {
+            resorting = ((DirectoryLoader) loader).resort();
+        } else if (loader instanceof MultiRootDocumentsLoader) {
+            resorting = ((MultiRootDocumentsLoader) loader).resort();
+        } else {
+            resorting = false;
+        }
+
+        if (!resorting) {
+            mActivity.getSupportLoaderManager().restartLoader(LOADER_ID, null, mBindings);
+        }
+    }
+
+    @Override
+    public void loadPagesAround(int firstPosition, int lastPosition, boolean forward) {
+        final Loader<DirectoryResult> loader =
+                mActivity.getSupportLoaderManager().getLoader(LOADER_ID);
+        if (loader instanceof DirectoryLoader) {
+            ((DirectoryLoader) loader).loadPagesAround(firstPosition, lastPosition, forward);
+        }
+    }
+
     protected final boolean launchToDocument(Uri uri) {
         // We don't support launching to a document in an archive.
         if (!Providers.isArchiveUri(uri)) {
@@ -864,7 +904,9 @@ public abstract class AbstractActionHandler<T extends FragmentActivity & CommonA
 
             if (mState.stack.isRecents()) {
                 final LockingContentObserver observer = new LockingContentObserver(
-                        mContentLock, AbstractActionHandler.this::loadDocumentsForCurrentStack);
+                        mContentLock, AbstractActionHandler.this::loadDocumentsForCurrentStack,
+                        context.getResources().getInteger(
+                                R.integer.config_min_content_reload_interval_millis));
                 MultiRootDocumentsLoader loader;
 
                 if (mSearchMgr.isSearching()) {
@@ -952,6 +994,10 @@ public abstract class AbstractActionHandler<T extends FragmentActivity & CommonA
 
         @Override
         public void onLoaderReset(Loader<DirectoryResult> loader) {
+            if (loader instanceof MultiRootDocumentsLoader) {
+                // A held back change would reload whatever directory is shown by then.
+                ((MultiRootDocumentsLoader) loader).cancelPendingChange();
+            }
             mLoaderSemaphore.release();
         }
     }
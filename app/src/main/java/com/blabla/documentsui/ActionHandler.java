@@ -172,6 +172,20 @@ public interface ActionHandler {
 
     void loadDocumentsForCurrentStack();
 
+    /**
+     * Re-orders the documents already loaded for the current stack after a sort order change,
+     * falling back to {@link #loadDocumentsForCurrentStack()} if they can't be re-sorted.
+     */
+    void sortDocumentsForCurrentStack();
+
+    /**
+     * Loads the pages of a paged directory around the given documents, counted among all
+     * documents of the directory. No-op if the directory isn't paged.
+     *
+     * @param forward whether the documents are scrolled towards the end of the directory
+     */
+    void loadPagesAround(int firstPosition, int lastPosition, boolean forward);
+
     void viewInOwner();
 
     void setDebugMode(boolean enabled);
@@ -77,6 +77,8 @@ import com.blabla.documentsui.sorting.SortController;
 import com.blabla.documentsui.sorting.SortModel;
 import com.google.android.material.appbar.AppBarLayout;
 
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
@@ -379,6 +381,19 @@ public abstract class BaseActivity
         return true;
     }
 
+    @Override
+    public void dump(String prefix, @Nullable FileDescriptor fd, PrintWriter writer,
+            @Nullable String[] args) {
+        super.dump(prefix, fd, writer, args);
+        DocumentsApplication.getQueryLatencyStats(this).dump(prefix, writer);
+        final BitmapPool bitmapPool = DocumentsApplication.getThumbnailCache(this).getBitmapPool();
+        if (bitmapPool != null) {
+            bitmapPool.dump(prefix, writer);
+        }
+        DocumentsApplication.getThumbnailExecutor(this).dump(prefix, writer);
+        DocumentsApplication.getDirectorySnapshotCache(this).dump(prefix, writer);
+    }
+
     @Override
     protected void onDestroy() {
         mRootsMonitor.stop();
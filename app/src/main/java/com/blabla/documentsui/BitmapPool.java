@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.blabla.documentsui;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+
+import java.io.PrintWriter;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+/**
+ * A pool of thumbnail bitmaps that were dropped from {@link ThumbnailCache}, so that their memory
+ * can be reused by the next thumbnail decoded with {@link BitmapFactory.Options#inBitmap},
+ * rather than allocating a new bitmap and leaving the old one to the garbage collector.
+ *
+ * <p>A bitmap is only pooled once nothing uses it anymore. Views showing a bitmap, and anything
+ * else reading it in the background, hold on to it with {@link #retain} and {@link #release}.
+ * Only mutable software bitmaps can be reused, others are left to the garbage collector as
+ * before.
+ */
+public class BitmapPool {
+
+    private final long mMaxSizeBytes;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Pooled bitmaps by bucket of allocation size, see getBucket().
+    @GuardedBy("this")
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> mBuckets = new TreeMap<>();
+    // Pooled bitmaps, oldest first.
+    @GuardedBy("this")
+    private final ArrayDeque<Bitmap> mOrder = new ArrayDeque<>();
+    @GuardedBy("this")
+    private long mSizeBytes;
+
+    // Users of bitmaps. Bitmaps only compare by identity, and they are dropped from the maps if
+    // they are garbage collected while still in use, e.g. by a view that went away.
+    @GuardedBy("this")
+    private final WeakHashMap<Bitmap, Integer> mRefCounts = new WeakHashMap<>();
+    // Bitmaps that are pooled once they are released.
+    @GuardedBy("this")
+    private final WeakHashMap<Bitmap, Boolean> mDropped = new WeakHashMap<>();
+
+    @GuardedBy("this")
+    private int mRequests;
+    @GuardedBy("this")
+    private int mHits;
+    @GuardedBy("this")
+    private long mBytesRecycled;
+
+    /**
+     * @param maxSizeBytes the maximum size of the bitmaps waiting in the pool.
+     */
+    public BitmapPool(long maxSizeBytes) {
+        mMaxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * Marks a bitmap as used, e.g. because it is shown by a view. Can be called from any thread.
+     */
+    public synchronized void retain(Bitmap bitmap) {
+        final Integer count = mRefCounts.get(bitmap);
+        mRefCounts.put(bitmap, (count != null) ? count + 1 : 1);
+    }
+
+    /**
+     * Undoes {@link #retain}. A bitmap that was dropped from the cache in the meantime goes to
+     * the pool. Can be called from any thread.
+     */
+    public synchronized void release(Bitmap bitmap) {
+        final Integer count = mRefCounts.get(bitmap);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            mRefCounts.put(bitmap, count - 1);
+            return;
+        }
+        mRefCounts.remove(bitmap);
+        if (mDropped.remove(bitmap) != null) {
+            putLocked(bitmap);
+        }
+    }
+
+    /**
+     * Offers a bitmap that was dropped from the cache. It is pooled once nothing uses it anymore.
+     * This is decided on the UI thread, after whatever is being bound read the cache, so that a
+     * bitmap that was just read from the cache is retained by its view first.
+     */
+    public void offer(Bitmap bitmap) {
+        if (!isReusable(bitmap)) {
+            return;
+        }
+        mMainHandler.post(() -> {
+            synchronized (this) {
+                if (mRefCounts.containsKey(bitmap)) {
+                    mDropped.put(bitmap, Boolean.TRUE);
+                } else {
+                    putLocked(bitmap);
+                }
+            }
+        });
+    }
+
+    /**
+     * Takes a bitmap that a decode of {@code width} x {@code height} pixels in
+     * {@link Bitmap.Config#ARGB_8888} can reuse, or returns null.
+     */
+    public synchronized @Nullable Bitmap get(int width, int height) {
+        mRequests++;
+        final int needed = width * height * 4;
+        // Only look at the bucket of the size and the one above, bigger bitmaps are better left
+        // to bigger thumbnails.
+        final Integer from = mBuckets.ceilingKey(getBucket(needed));
+        if (from != null && from <= getBucket(needed) * 2) {
+            for (Map.Entry<Integer, ArrayDeque<Bitmap>> entry
+                    : mBuckets.subMap(from, true, getBucket(needed) * 2, true).entrySet()) {
+                final Iterator<Bitmap> it = entry.getValue().iterator();
+                while (it.hasNext()) {
+                    final Bitmap bitmap = it.next();
+                    if (bitmap.getAllocationByteCount() >= needed
+                            && bitmap.getConfig() == Bitmap.Config.ARGB_8888) {
+                        it.remove();
+                        if (entry.getValue().isEmpty()) {
+                            mBuckets.remove(entry.getKey());
+                        }
+                        mOrder.remove(bitmap);
+                        mSizeBytes -= bitmap.getAllocationByteCount();
+                        mHits++;
+                        mBytesRecycled += bitmap.getAllocationByteCount();
+                        return bitmap;
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Drops all pooled bitmaps. */
+    public synchronized void clear() {
+        mBuckets.clear();
+        mOrder.clear();
+        mSizeBytes = 0;
+    }
+
+    /** Prints the hit rate of the pool and the memory it recycled, for debugging. */
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "Bitmap pool: " + mOrder.size() + " bitmaps, " + mSizeBytes
+                + " bytes, hits=" + mHits + "/" + mRequests
+                + " (" + (mRequests > 0 ? 100 * mHits / mRequests : 0) + "%)"
+                + ", bytes recycled=" + mBytesRecycled);
+    }
+
+    @GuardedBy("this")
+    private void putLocked(Bitmap bitmap) {
+        if (bitmap.isRecycled() || mOrder.contains(bitmap)) {
+            return;
+        }
+        final int size = bitmap.getAllocationByteCount();
+        if (size > mMaxSizeBytes) {
+            return;
+        }
+        mBuckets.computeIfAbsent(getBucket(size), bucket -> new ArrayDeque<>()).add(bitmap);
+        mOrder.add(bitmap);
+        mSizeBytes += size;
+
+        while (mSizeBytes > mMaxSizeBytes) {
+            final Bitmap eldest = mOrder.poll();
+            final int bucket = getBucket(eldest.getAllocationByteCount());
+            final ArrayDeque<Bitmap> bitmaps = mBuckets.get(bucket);
+            bitmaps.remove(eldest);
+            if (bitmaps.isEmpty()) {
+                mBuckets.remove(bucket);
+            }
+            mSizeBytes -= eldest.getAllocationByteCount();
+        }
+    }
+
+    private static boolean isReusable(Bitmap bitmap) {
+        return bitmap.isMutable() && !bitmap.isRecycled()
+                && bitmap.getConfig() == Bitmap.Config.ARGB_8888;
+    }
+
+    // The next power of two of a size in bytes.
+    private static int getBucket(int size) {
+        final int bucket = Integer.highestOneBit(Math.max(1, size));
+        return (bucket == size) ? bucket : bucket << 1;
+    }
+}
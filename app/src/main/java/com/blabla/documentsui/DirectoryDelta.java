@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.blabla.documentsui;
+
+import android.text.TextUtils;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The documents that were inserted, removed or changed between two loads of the same listing.
+ * Documents not mentioned are unchanged, though they may have moved.
+ *
+ * <p>A delta only applies to the exact result it was computed against, see {@link #isBasedOn}.
+ */
+public final class DirectoryDelta {
+
+    private final String[] mBaseModelIds;
+    private final Set<String> mInserted;
+    private final Set<String> mRemoved;
+    private final Set<String> mChanged;
+
+    private DirectoryDelta(String[] baseModelIds, Set<String> inserted, Set<String> removed,
+            Set<String> changed) {
+        mBaseModelIds = baseModelIds;
+        mInserted = inserted;
+        mRemoved = removed;
+        mChanged = changed;
+    }
+
+    /**
+     * Creates a delta for rows that were only moved, e.g. by re-sorting them.
+     */
+    static DirectoryDelta reordered(String[] baseModelIds) {
+        return new DirectoryDelta(baseModelIds, Collections.emptySet(), Collections.emptySet(),
+                Collections.emptySet());
+    }
+
+    /**
+     * Compares a freshly loaded table against the one loaded before, by model ID. A row is
+     * changed if its last modified time, size or flags differ, or anything else the list
+     * shows of it, since e.g. a rename doesn't touch the last modified time on most file systems.
+     *
+     * <p>The model IDs of unchanged rows in {@code newIds} are replaced with the instances in
+     * {@code oldIds}, so later comparisons of the two are mostly identity checks.
+     */
+    static DirectoryDelta compute(String[] oldIds, DocumentTable oldTable, String[] newIds,
+            DocumentTable newTable) {
+        final Map<String, Integer> oldRows = new HashMap<>(oldIds.length * 4 / 3 + 1);
+        for (int i = 0; i < oldIds.length; i++) {
+            oldRows.put(oldIds[i], i);
+        }
+
+        final Set<String> inserted = new HashSet<>();
+        final Set<String> changed = new HashSet<>();
+        for (int i = 0; i < newIds.length; i++) {
+            final Integer oldRow = oldRows.remove(newIds[i]);
+            if (oldRow == null) {
+                inserted.add(newIds[i]);
+            } else if (isSameRow(oldTable, oldRow, newTable, i)) {
+                newIds[i] = oldIds[oldRow];
+            } else {
+                changed.add(newIds[i]);
+            }
+        }
+        // Whatever wasn't matched up is gone.
+        final Set<String> removed = new HashSet<>(oldRows.keySet());
+        return new DirectoryDelta(oldIds, inserted, removed, changed);
+    }
+
+    private static boolean isSameRow(
+            DocumentTable oldTable, int oldRow, DocumentTable newTable, int newRow) {
+        return oldTable.getLastModified(oldRow) == newTable.getLastModified(newRow)
+                && oldTable.getSize(oldRow) == newTable.getSize(newRow)
+                && oldTable.getFlags(oldRow) == newTable.getFlags(newRow)
+                && oldTable.getIcon(oldRow) == newTable.getIcon(newRow)
+                && TextUtils.equals(oldTable.getDisplayName(oldRow),
+                        newTable.getDisplayName(newRow))
+                && TextUtils.equals(oldTable.getMimeType(oldRow), newTable.getMimeType(newRow))
+                && TextUtils.equals(oldTable.getSummary(oldRow), newTable.getSummary(newRow));
+    }
+
+    /**
+     * Returns whether this delta describes the changes since the given model IDs, i.e. they are
+     * the very array of the result this delta was computed against.
+     */
+    public boolean isBasedOn(String[] modelIds) {
+        return mBaseModelIds == modelIds;
+    }
+
+    /** Returns the model IDs of documents that weren't there before. */
+    public Set<String> getInsertedIds() {
+        return mInserted;
+    }
+
+    /** Returns the model IDs of documents that are gone. */
+    public Set<String> getRemovedIds() {
+        return mRemoved;
+    }
+
+    /** Returns the model IDs of documents that are still there, but look different. */
+    public Set<String> getChangedIds() {
+        return mChanged;
+    }
+
+    /** Returns whether the documents are the same as before, though they may have moved. */
+    public boolean isEmpty() {
+        return mInserted.isEmpty() && mRemoved.isEmpty() && mChanged.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return "DirectoryDelta{"
+                + "inserted=" + mInserted.size()
+                + ", removed=" + mRemoved.size()
+                + ", changed=" + mChanged.size()
+                + "}";
+    }
+}
@@ -24,34 +24,48 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.MergeCursor;
 import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.CancellationSignal;
 import android.os.FileUtils;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.OperationCanceledException;
 import android.os.RemoteException;
+import android.os.SystemClock;
 import android.provider.DocumentsContract;
 import android.provider.DocumentsContract.Document;
 import android.util.Log;
 
+import androidx.annotation.GuardedBy;
 import androidx.annotation.Nullable;
 import androidx.loader.content.AsyncTaskLoader;
 
 import com.blabla.documentsui.archives.ArchivesProvider;
-import com.blabla.documentsui.base.DebugFlags;
 import com.blabla.documentsui.base.DocumentInfo;
 import com.blabla.documentsui.base.Features;
 import com.blabla.documentsui.base.FilteringCursorWrapper;
+import com.blabla.documentsui.base.FilteringCursorWrapper.FilterPlan;
 import com.blabla.documentsui.base.Lookup;
 import com.blabla.documentsui.base.MimeTypes;
 import com.blabla.documentsui.base.RootInfo;
 import com.blabla.documentsui.base.State;
 import com.blabla.documentsui.base.UserId;
 import com.blabla.documentsui.roots.RootCursorWrapper;
+import com.blabla.documentsui.sorting.SortKeyCache;
 import com.blabla.documentsui.sorting.SortModel;
+import com.google.common.util.concurrent.AbstractFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class DirectoryLoader extends AsyncTaskLoader<DirectoryResult> {
 
@@ -59,6 +73,8 @@ public class DirectoryLoader extends AsyncTaskLoader<DirectoryResult> {
     private static final String[] SEARCH_REJECT_MIMES = new String[]{Document.MIME_TYPE_DIR};
     private static final String[] PHOTO_PICKING_ACCEPT_MIMES = new String[]
             {Document.MIME_TYPE_DIR, MimeTypes.IMAGE_MIME};
+    // How long to wait for the results of other users before showing the ones at hand.
+    private static final int MAX_CROSS_PROFILE_WAIT_MILLIS = 500;
 
     private final LockingContentObserver mObserver;
     private final RootInfo mRoot;
@@ -69,11 +85,23 @@ public class DirectoryLoader extends AsyncTaskLoader<DirectoryResult> {
     private final boolean mSearchMode;
     private final Bundle mQueryArgs;
     private final boolean mPhotoPicking;
+    private final DirectorySnapshotCache mSnapshotCache;
+    private final SortKeyCache mSortKeys = new SortKeyCache();
+    private final DirectoryPager mPager = new DirectoryPager();
+    private final Executor mQueryExecutor = AsyncTask.THREAD_POOL_EXECUTOR;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // Queries of other users that didn't finish in time for the load that started them.
+    @GuardedBy("this")
+    private final Map<UserId, UserQuery> mLateQueries = new HashMap<>();
 
     @Nullable
     private DocumentInfo mDoc;
     private CancellationSignal mSignal;
     private DirectoryResult mResult;
+    // The delivered result, which the next load is compared against. See DirectoryResult#getDelta.
+    private volatile @Nullable DirectoryResult mDeltaBase;
+    // The result to re-sort on the next load instead of querying the provider. Guarded by this.
+    private @Nullable DirectoryResult mResortSource;
 
     private Features mFeatures;
 
@@ -96,8 +124,19 @@ public class DirectoryLoader extends AsyncTaskLoader<DirectoryResult> {
         mFileTypeLookup = fileTypeLookup;
         mSearchMode = queryArgs != null;
         mQueryArgs = queryArgs;
-        mObserver = new LockingContentObserver(lock, this::onContentChanged);
+        mObserver = new LockingContentObserver(lock, this::onContentChanged,
+                context.getResources().getInteger(
+                        R.integer.config_min_content_reload_interval_millis));
         mPhotoPicking = state.isPhotoPicking();
+        mSnapshotCache = DocumentsApplication.getDirectorySnapshotCache(context);
+    }
+
+    /**
+     * Called when the user asked to refresh the directory. The change notification of the
+     * refreshed contents is delivered without waiting for the minimum reload interval.
+     */
+    public void onRefreshRequested() {
+        mObserver.deliverNextChangeImmediately();
     }
 
 //    @Override
@@ -105,8 +144,62 @@ public class DirectoryLoader extends AsyncTaskLoader<DirectoryResult> {
         return ProviderExecutor.forAuthority(mRoot.authority);
     }
 
+    /**
+     * Re-sorts the delivered result with the current sort order on a background thread, rather
+     * than querying the provider again. Must be called from UI thread.
+     *
+     * @return false if there is no result that can be re-sorted, or a load is already running.
+     *         The caller should reload instead.
+     */
+    public boolean resort() {
+        synchronized (this) {
+            if (!isStarted() || mSignal != null
+                    || mResult == null || !mResult.isValid()) {
+                return false;
+            }
+            mResortSource = mResult;
+        }
+        forceLoad();
+        return true;
+    }
+
+    @Override
+    public void onContentChanged() {
+        // Content changes need a real query, don't let them be served by a pending re-sort.
+        synchronized (this) {
+            mResortSource = null;
+        }
+        final DirectoryResult result = mResult;
+        if (result != null) {
+            result.invalidate();
+        }
+        mPager.invalidate();
+        if (!mSearchMode) {
+            mSnapshotCache.removeUri(mUri, mRoot.userId);
+        }
+        super.onContentChanged();
+    }
+
     @Override
     public final DirectoryResult loadInBackground() {
+        final DirectoryResult resortSource;
+        synchronized (this) {
+            if (isLoadInBackgroundCanceled()) {
+                throw new OperationCanceledException();
+            }
+            resortSource = mResortSource;
+            mResortSource = null;
+        }
+
+        if (resortSource != null) {
+            final DirectoryResult resorted = resortSource.resort(mModel, mFileTypeLookup, mSortKeys);
+            if (resorted != null) {
+                if (VERBOSE) Log.d(TAG, "Re-sorted loaded documents without querying.");
+                cacheSnapshot(resorted);
+                return resorted;
+            }
+        }
+
         synchronized (this) {
             if (isLoadInBackgroundCanceled()) {
                 throw new OperationCanceledException();
@@ -120,7 +213,8 @@ public class DirectoryLoader extends AsyncTaskLoader<DirectoryResult> {
         result.doc = mDoc;
 
         ContentProviderClient client = null;
-        Cursor cursor;
+        Cursor cursor = null;
+        final List<RootCursorWrapper> rootCursors = new ArrayList<>();
         try {
             final Bundle queryArgs = new Bundle();
             mModel.addQuerySortArgs(queryArgs);
@@ -164,13 +258,35 @@ public class DirectoryLoader extends AsyncTaskLoader<DirectoryResult> {
                 result.client = client;
             }
 
-            if (mFeatures.isContentPagingEnabled()) {
-                // TODO: At some point we don't want forced flags to override real paging...
-                // and that point is when we have real paging.
-                DebugFlags.addForcedPagingArgs(queryArgs);
+            final FilterPlan filterPlan = new FilterPlan()
+                    .filterHiddenFiles(mState.showHiddenFiles);
+            if (mSearchMode && !mFeatures.isFoldersInSearchResultsEnabled()) {
+                // There is no findDocumentPath API. Enable filtering on folders in search mode.
+                filterPlan.filterMimes(/* acceptMimes= */ null, SEARCH_REJECT_MIMES);
+            }
+            if (mPhotoPicking) {
+                filterPlan.filterMimes(PHOTO_PICKING_ACCEPT_MIMES, /* rejectMimes= */ null);
+            }
+
+            if (mFeatures.isContentPagingEnabled() && !mSearchMode && mPager.isEnabled()) {
+                cursor = queryPages(authority, queryArgs, filterPlan, result, rootCursors);
+                // Paging is turned off if the provider didn't page.
+                if (mPager.isEnabled()) {
+                    if (VERBOSE) {
+                        Log.v(TAG, "Read pages " + mPager.getFirstPage() + "-"
+                                + mPager.getLastPage() + " with "
+                                + result.getTable().getCount() + " documents, "
+                                + result.getUnloadedBefore() + " before and "
+                                + result.getUnloadedAfter() + " after not loaded.");
+                    }
+                    cacheSnapshot(result);
+                    return result;
+                }
             }
 
-            cursor = queryOnUsers(userIds, authority, queryArgs);
+            if (cursor == null) {
+                cursor = queryOnUsers(userIds, authority, queryArgs, rootCursors);
+            }
 
             if (cursor == null) {
                 throw new RemoteException("Provider returned null");
@@ -178,28 +294,27 @@ public class DirectoryLoader extends AsyncTaskLoader<DirectoryResult> {
             cursor.registerContentObserver(mObserver);
 
             FilteringCursorWrapper filteringCursor = new FilteringCursorWrapper(cursor);
-            filteringCursor.filterHiddenFiles(mState.showHiddenFiles);
-            if (mSearchMode && !mFeatures.isFoldersInSearchResultsEnabled()) {
-                // There is no findDocumentPath API. Enable filtering on folders in search mode.
-                filteringCursor.filterMimes(/* acceptMimes= */ null, SEARCH_REJECT_MIMES);
-            }
-            if (mPhotoPicking) {
-                filteringCursor.filterMimes(PHOTO_PICKING_ACCEPT_MIMES, /* rejectMimes= */ null);
-            }
+            filteringCursor.filter(filterPlan);
             cursor = filteringCursor;
 
-            // TODO: When API tweaks have landed, use ContentResolver.EXTRA_HONORED_ARGS
-            // instead of checking directly for ContentResolver.QUERY_ARG_SORT_COLUMNS (won't work)
-            if (mFeatures.isContentPagingEnabled()
-                    && cursor.getExtras().containsKey(ContentResolver.QUERY_ARG_SORT_COLUMNS)) {
+            // Results merged across users keep the order of each user only.
+            if (userIds.size() == 1
+                    && SortModel.isSortedByProvider(queryArgs, cursor.getExtras())) {
                 if (VERBOSE) Log.d(TAG, "Skipping sort of pre-sorted cursor. Booya!");
+                cursor = mModel.sortPresortedCursor(cursor);
             } else {
-                cursor = mModel.sortCursor(cursor, mFileTypeLookup);
+                cursor = mModel.sortCursor(cursor, mFileTypeLookup, mSortKeys);
             }
-            result.setCursor(cursor);
+            result.setCursor(cursor, mDeltaBase);
+            if (VERBOSE) {
+                Log.v(TAG, "Read " + cursor.getCount() + " documents with "
+                        + getWindowFillCount(rootCursors) + " cursor window fills.");
+            }
+            cacheSnapshot(result);
         } catch (Exception e) {
             Log.w(TAG, "Failed to query", e);
             result.exception = e;
+            cacheSnapshot(result);
             FileUtils.closeQuietly(client);
         } finally {
             synchronized (this) {
@@ -210,34 +325,228 @@ public class DirectoryLoader extends AsyncTaskLoader<DirectoryResult> {
         return result;
     }
 
+    /**
+     * Loads the window of pages wanted by {@link #mPager}, reusing the pages loaded before.
+     * Pages are only put together if the provider sorted them, otherwise paging is turned off
+     * for this loader and the pages aren't set on {@code result}.
+     *
+     * @return the cursor of the whole listing if the provider ignored the paging arguments, so
+     *         that it isn't queried again, or null.
+     */
+    private @Nullable Cursor queryPages(String authority, Bundle queryArgs, FilterPlan filterPlan,
+            DirectoryResult result, List<RootCursorWrapper> rootCursors) throws RemoteException {
+        final int firstPage = mPager.getFirstPage();
+        final int lastPage = mPager.getLastPage();
+        final List<UserId> userIds = Collections.singletonList(mRoot.userId);
+        mPager.setSortOrder(queryArgs);
+        final Map<Integer, DocumentTable> pages = new HashMap<>();
+        // The cursor of one queried page is kept in the result, to be notified of changes.
+        Cursor resultCursor = null;
+        int totalCount = -1;
+        try {
+            for (int page = firstPage; page <= lastPage; page++) {
+                DocumentTable table = mPager.getPage(page);
+                // At least the last page is queried, for the cursor and the current total.
+                if (table == null || (resultCursor == null && page == lastPage)) {
+                    final Bundle pageArgs = new Bundle(queryArgs);
+                    mPager.addPageArgs(pageArgs, page);
+                    final Cursor cursor = queryOnUsers(userIds, authority, pageArgs, rootCursors);
+                    if (cursor == null) {
+                        throw new RemoteException("Provider returned null");
+                    }
+                    final Bundle extras = cursor.getExtras();
+                    if (!DirectoryPager.isPaged(pageArgs, extras)) {
+                        if (VERBOSE) Log.v(TAG, "Provider doesn't page " + mUri + ".");
+                        FileUtils.closeQuietly(resultCursor);
+                        mPager.disable();
+                        if (DirectoryPager.isWholeListing(extras)) {
+                            return cursor;
+                        }
+                        cursor.close();
+                        return null;
+                    }
+                    totalCount = extras.getInt(ContentResolver.EXTRA_TOTAL_COUNT);
+
+                    final FilteringCursorWrapper filteringCursor =
+                            new FilteringCursorWrapper(cursor);
+                    filteringCursor.filter(filterPlan);
+                    // Providers can't be asked to put directories first, so they are only put
+                    // first within each page.
+                    table = DocumentTable.fromCursor(
+                            mModel.sortPresortedCursor(filteringCursor));
+                    if (table == null) {
+                        cursor.close();
+                        throw new RemoteException("Failed to read page " + page);
+                    }
+                    if (resultCursor == null) {
+                        resultCursor = cursor;
+                    } else {
+                        cursor.close();
+                    }
+                }
+                pages.put(page, table);
+            }
+        } catch (RemoteException | RuntimeException e) {
+            FileUtils.closeQuietly(resultCursor);
+            throw e;
+        }
+        resultCursor.registerContentObserver(mObserver);
+
+        final List<DocumentTable> tables = new ArrayList<>(pages.size());
+        for (int page = firstPage; page <= lastPage; page++) {
+            tables.add(pages.get(page));
+        }
+        final int pageSize = mPager.getPageSize();
+        result.setPages(resultCursor, DocumentTable.concat(tables),
+                Math.min(totalCount, firstPage * pageSize),
+                Math.max(0, totalCount - (lastPage + 1) * pageSize));
+        mPager.onPagesLoaded(firstPage, lastPage, pages, totalCount);
+        return null;
+    }
+
+    /**
+     * Loads the pages of a paged listing around the given documents, if they aren't loaded yet.
+     * Positions are counted among all documents of the listing, loaded or not. Must be called
+     * from UI thread.
+     *
+     * @param forward whether the documents are scrolled towards the end of the listing
+     */
+    public void loadPagesAround(int firstPosition, int lastPosition, boolean forward) {
+        final DirectoryResult result = mResult;
+        if (result == null || !result.isPaged() || !isStarted()) {
+            return;
+        }
+        if (!mPager.moveWindow(result, firstPosition, lastPosition, forward)) {
+            return;
+        }
+        synchronized (this) {
+            if (mSignal != null) {
+                // The running load is followed up in #deliverResult.
+                return;
+            }
+        }
+        forceLoad();
+    }
+
+    static int getWindowFillCount(List<RootCursorWrapper> cursors) {
+        int count = 0;
+        for (RootCursorWrapper cursor : cursors) {
+            count += cursor.getWindowFillCount();
+        }
+        return count;
+    }
+
+    private DirectorySnapshotCache.Key getSnapshotKey() {
+        return new DirectorySnapshotCache.Key(mUri, mRoot.userId,
+                mModel.getSortedDimensionId(), mModel.getCurrentSortDirection(),
+                mState.showHiddenFiles, mPhotoPicking ? PHOTO_PICKING_ACCEPT_MIMES : null);
+    }
+
+    private void cacheSnapshot(DirectoryResult result) {
+        // Search results depend on the query, and aren't navigated back to. Paged results would
+        // show the loaded pages at the wrong place when navigated back to.
+        if (!mSearchMode && !result.isPaged()) {
+            mSnapshotCache.put(getSnapshotKey(), result);
+        }
+    }
+
     private boolean shouldSearchAcrossProfile() {
         return mState.supportsCrossProfile()
                 && mRoot.supportsCrossProfile()
                 && mQueryArgs.containsKey(DocumentsContract.QUERY_ARG_DISPLAY_NAME);
     }
 
+    /**
+     * Queries the listing of each user. The user of the root is queried on this thread, the
+     * others in parallel. Users whose query doesn't return within
+     * {@link #MAX_CROSS_PROFILE_WAIT_MILLIS} are left out, and the merged cursor is marked with
+     * {@link DocumentsContract#EXTRA_LOADING}. Their results are filled in with another load once
+     * their query is done.
+     */
     @Nullable
-    private Cursor queryOnUsers(List<UserId> userIds, String authority, Bundle queryArgs)
-            throws RemoteException {
+    private Cursor queryOnUsers(List<UserId> userIds, String authority, Bundle queryArgs,
+            List<RootCursorWrapper> rootCursors) throws RemoteException {
+        final long deadline = SystemClock.elapsedRealtime() + MAX_CROSS_PROFILE_WAIT_MILLIS;
+        final List<UserQuery> queries = new ArrayList<>(userIds.size());
+        UserQuery rootUserQuery = null;
+        synchronized (this) {
+            for (UserId userId : userIds) {
+                // Pick up queries left running by the previous load.
+                UserQuery query = mLateQueries.remove(userId);
+                if (query == null) {
+                    query = new UserQuery(userId, authority, queryArgs, mSignal);
+                    if (userId.equals(mRoot.userId)) {
+                        rootUserQuery = query;
+                    } else {
+                        mQueryExecutor.execute(query);
+                    }
+                }
+                queries.add(query);
+            }
+        }
+        if (rootUserQuery != null) {
+            rootUserQuery.run();
+        }
+
         final List<Cursor> cursors = new ArrayList<>(userIds.size());
-        for (UserId userId : userIds) {
-            try (ContentProviderClient userClient =
-                         DocumentsApplication.acquireUnstableProviderOrThrow(
-                                 userId.getContentResolver(getContext()), authority)) {
-                Cursor c = userClient.query(mUri, /* projection= */null, queryArgs, mSignal);
-                if (c != null) {
-                    cursors.add(new RootCursorWrapper(userId, mUri.getAuthority(), mRoot.rootId,
-                            c, /* maxCount= */-1));
+        boolean loading = false;
+        // The queries before this one were read or kept for the next load.
+        int next = 0;
+        try {
+            for (; next < queries.size(); next++) {
+                final UserQuery query = queries.get(next);
+                final RootCursorWrapper cursor;
+                try {
+                    cursor = query.get(Math.max(0, deadline - SystemClock.elapsedRealtime()),
+                            TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    if (VERBOSE) Log.v(TAG, "Query for user " + query.userId + " still running.");
+                    synchronized (this) {
+                        mLateQueries.put(query.userId, query);
+                    }
+                    query.notifyWhenDone();
+                    loading = true;
+                    continue;
+                } catch (InterruptedException e) {
+                    throw new OperationCanceledException();
+                } catch (ExecutionException e) {
+                    final Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    Log.d(TAG, "Failed to query for user " + query.userId, cause);
+                    // Searching on other profile may not succeed because profile may be in
+                    // quiet mode.
+                    if (UserId.CURRENT_USER.equals(query.userId)) {
+                        throw (RemoteException) cause;
+                    }
+                    continue;
                 }
-            } catch (RemoteException e) {
-                Log.d(TAG, "Failed to query for user " + userId, e);
-                // Searching on other profile may not succeed because profile may be in quiet mode.
-                if (UserId.CURRENT_USER.equals(userId)) {
-                    throw e;
+                if (cursor != null) {
+                    rootCursors.add(cursor);
+                    cursors.add(cursor);
+                }
+            }
+        } finally {
+            if (next < queries.size()) {
+                // The load failed, nothing is going to read the cursors of the other users.
+                for (int i = next; i < queries.size(); i++) {
+                    queries.get(i).discard();
+                }
+                for (Cursor cursor : cursors) {
+                    FileUtils.closeQuietly(cursor);
                 }
             }
         }
+
         int size = cursors.size();
+        if (loading) {
+            final Cursor merged = new MergeCursor(cursors.toArray(new Cursor[size]));
+            final Bundle extras = new Bundle();
+            extras.putBoolean(DocumentsContract.EXTRA_LOADING, true);
+            merged.setExtras(extras);
+            return merged;
+        }
         switch (size) {
             case 0:
                 return null;
@@ -248,6 +557,79 @@ public class DirectoryLoader extends AsyncTaskLoader<DirectoryResult> {
         }
     }
 
+    /**
+     * Queries the listing of one user for {@link #queryOnUsers}. Queries that didn't finish in
+     * time for the load that started them are kept in {@link #mLateQueries}, and trigger another
+     * load once they are done.
+     */
+    private final class UserQuery extends AbstractFuture<RootCursorWrapper> implements Runnable {
+        final UserId userId;
+        private final String mAuthority;
+        private final Bundle mQueryArgs;
+        private final CancellationSignal mSignal;
+
+        private volatile boolean mNotifyWhenDone;
+
+        UserQuery(UserId userId, String authority, Bundle queryArgs, CancellationSignal signal) {
+            this.userId = userId;
+            mAuthority = authority;
+            mQueryArgs = queryArgs;
+            mSignal = signal;
+        }
+
+        @Override
+        public void run() {
+            try (ContentProviderClient userClient =
+                         DocumentsApplication.acquireUnstableProviderOrThrow(
+                                 userId.getContentResolver(getContext()), mAuthority)) {
+                final Cursor c = DocumentTable.query(userClient, mUri, mQueryArgs, mSignal);
+                set((c != null)
+                        ? new RootCursorWrapper(userId, mAuthority, mRoot.rootId, c,
+                                /* maxCount= */-1)
+                        : null);
+            } catch (RemoteException | RuntimeException e) {
+                setException(e);
+            }
+            if (mNotifyWhenDone) {
+                mMainHandler.post(DirectoryLoader.this::onLateQueryDone);
+            }
+        }
+
+        /** Triggers another load once this query is done. */
+        void notifyWhenDone() {
+            mNotifyWhenDone = true;
+            if (isDone()) {
+                // Finished in the meantime, run() may have missed the flag.
+                mMainHandler.post(DirectoryLoader.this::onLateQueryDone);
+            }
+        }
+
+        /** Cancels the query, and closes its cursor should it still return one. */
+        void discard() {
+            mSignal.cancel();
+            addListener(() -> {
+                try {
+                    FileUtils.closeQuietly(get());
+                } catch (InterruptedException | ExecutionException e) {
+                    // Nothing to close.
+                }
+            }, MoreExecutors.directExecutor());
+        }
+    }
+
+    private void onLateQueryDone() {
+        if (!isReset()) {
+            onContentChanged();
+        }
+    }
+
+    private synchronized void discardLateQueries() {
+        for (UserQuery query : mLateQueries.values()) {
+            query.discard();
+        }
+        mLateQueries.clear();
+    }
+
     @Override
     public void cancelLoadInBackground() {
         super.cancelLoadInBackground();
@@ -257,6 +639,7 @@ public class DirectoryLoader extends AsyncTaskLoader<DirectoryResult> {
                 mSignal.cancel();
             }
         }
+        discardLateQueries();
     }
 
     @Override
@@ -266,10 +649,16 @@ public class DirectoryLoader extends AsyncTaskLoader<DirectoryResult> {
             return;
         }
         DirectoryResult oldResult = mResult;
+        result.takeOwnership();
         mResult = result;
+        mDeltaBase = result;
 
         if (isStarted()) {
             super.deliverResult(result);
+            if (result.exception == null && mPager.needsLoad()) {
+                // Scrolled on while the pages were loading.
+                forceLoad();
+            }
         }
 
         if (oldResult != null && oldResult != result) {
@@ -279,11 +668,22 @@ public class DirectoryLoader extends AsyncTaskLoader<DirectoryResult> {
 
     @Override
     protected void onStartLoading() {
-        boolean isCursorStale = checkIfCursorStale(mResult);
-        if (mResult != null && !isCursorStale) {
+        if (mResult == null && !mSearchMode) {
+            final DirectoryResult snapshot = mSnapshotCache.get(getSnapshotKey());
+            if (VERBOSE) Log.v(TAG, "Directory snapshot cache: " + mSnapshotCache);
+            if (snapshot != null) {
+                // Show the last known contents right away. The snapshot is invalidated so that
+                // it's reloaded from the provider below.
+                deliverResult(snapshot);
+                snapshot.invalidate();
+            }
+        }
+
+        final boolean isResultValid = mResult != null && mResult.isValid();
+        if (isResultValid) {
             deliverResult(mResult);
         }
-        if (takeContentChanged() || mResult == null || isCursorStale) {
+        if (takeContentChanged() || !isResultValid) {
             forceLoad();
         }
     }
@@ -308,26 +708,14 @@ public class DirectoryLoader extends AsyncTaskLoader<DirectoryResult> {
         if (mResult != null && mResult.getCursor() != null && mObserver != null) {
             mResult.getCursor().unregisterContentObserver(mObserver);
         }
+        if (mObserver != null) {
+            mObserver.cancel();
+        }
 
         FileUtils.closeQuietly(mResult);
         mResult = null;
-    }
-
-    private boolean checkIfCursorStale(DirectoryResult result) {
-        if (result == null || result.getCursor() == null || result.getCursor().isClosed()) {
-            return true;
-        }
-        Cursor cursor = result.getCursor();
-        try {
-            cursor.moveToPosition(-1);
-            for (int pos = 0; pos < cursor.getCount(); ++pos) {
-                if (!cursor.moveToNext()) {
-                    return true;
-                }
-            }
-        } catch (Exception e) {
-            return true;
-        }
-        return false;
+        mDeltaBase = null;
+        discardLateQueries();
+        mSortKeys.clear();
     }
 }
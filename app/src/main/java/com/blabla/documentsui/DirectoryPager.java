@@ -0,0 +1,252 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.blabla.documentsui;
+
+import android.content.ContentResolver;
+import android.os.Bundle;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+
+import com.blabla.documentsui.base.DebugFlags;
+import com.blabla.documentsui.sorting.SortModel;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Keeps track of the pages of a directory listing that {@link DirectoryLoader} loads, for
+ * providers that can page their results with {@link ContentResolver#QUERY_ARG_OFFSET} and
+ * {@link ContentResolver#QUERY_ARG_LIMIT}.
+ *
+ * <p>Only a window of consecutive pages around the visible documents is loaded, and the rest of
+ * the listing is shown as placeholders. The window follows scrolling, loading a page ahead in the
+ * scroll direction and dropping the pages furthest behind, so memory use doesn't grow with the
+ * size of the directory.
+ */
+final class DirectoryPager {
+
+    // Documents per page.
+    private static final int DEFAULT_PAGE_SIZE = 200;
+    // Pages loaded at most at a time.
+    private static final int MAX_RESIDENT_PAGES = 6;
+    // Pages loaded ahead of the visible documents in scroll direction.
+    private static final int PREFETCH_PAGES = 1;
+
+    private final int mPageSize;
+
+    @GuardedBy("this")
+    private boolean mEnabled = true;
+    // The number of documents in the listing, or -1 until the first page is loaded.
+    @GuardedBy("this")
+    private int mTotalCount = -1;
+    // The window of pages to load, inclusive.
+    @GuardedBy("this")
+    private int mFirstPage;
+    @GuardedBy("this")
+    private int mLastPage;
+    // The window of pages last loaded, inclusive, or -1.
+    @GuardedBy("this")
+    private int mLoadedFirstPage = -1;
+    @GuardedBy("this")
+    private int mLoadedLastPage = -1;
+    @GuardedBy("this")
+    private Map<Integer, DocumentTable> mPages = new HashMap<>();
+    // The sort order the loaded pages were queried with, see getSortOrder().
+    @GuardedBy("this")
+    private @Nullable String mSortOrder;
+
+    DirectoryPager() {
+        final int forcedLimit = DebugFlags.getForcedPageLimit();
+        mPageSize = (forcedLimit > 0) ? forcedLimit : DEFAULT_PAGE_SIZE;
+        mFirstPage = Math.max(0, DebugFlags.getForcedPageOffset()) / mPageSize;
+        mLastPage = mFirstPage + PREFETCH_PAGES;
+    }
+
+    int getPageSize() {
+        return mPageSize;
+    }
+
+    /** Returns false once the provider turned out not to page its results. */
+    synchronized boolean isEnabled() {
+        return mEnabled;
+    }
+
+    synchronized void disable() {
+        mEnabled = false;
+        mPages = new HashMap<>();
+    }
+
+    /**
+     * Returns whether a provider paged the results of a query, i.e. it honored the paging
+     * arguments and the sort order, and reported the size of the whole listing. Pages of
+     * results that aren't sorted by the provider can't be put together.
+     */
+    static boolean isPaged(Bundle queryArgs, Bundle extras) {
+        final String[] honoredArgs = extras.getStringArray(ContentResolver.EXTRA_HONORED_ARGS);
+        return extras.containsKey(ContentResolver.EXTRA_TOTAL_COUNT)
+                && contains(honoredArgs, ContentResolver.QUERY_ARG_OFFSET)
+                && contains(honoredArgs, ContentResolver.QUERY_ARG_LIMIT)
+                && SortModel.isSortedByProvider(queryArgs, extras);
+    }
+
+    /**
+     * Returns whether the results of a query with paging arguments hold the whole listing, i.e.
+     * the provider ignored both the offset and the limit.
+     */
+    static boolean isWholeListing(Bundle extras) {
+        final String[] honoredArgs = extras.getStringArray(ContentResolver.EXTRA_HONORED_ARGS);
+        return !contains(honoredArgs, ContentResolver.QUERY_ARG_OFFSET)
+                && !contains(honoredArgs, ContentResolver.QUERY_ARG_LIMIT);
+    }
+
+    private static boolean contains(@Nullable String[] values, String value) {
+        if (values == null) {
+            return false;
+        }
+        for (String v : values) {
+            if (value.equals(v)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Adds the paging arguments for {@code page} to {@code queryArgs}. */
+    void addPageArgs(Bundle queryArgs, int page) {
+        queryArgs.putInt(ContentResolver.QUERY_ARG_OFFSET, page * mPageSize);
+        queryArgs.putInt(ContentResolver.QUERY_ARG_LIMIT, mPageSize);
+    }
+
+    synchronized int getFirstPage() {
+        return Math.min(mFirstPage, getLastPageIndex());
+    }
+
+    synchronized int getLastPage() {
+        return Math.min(mLastPage, getLastPageIndex());
+    }
+
+    @GuardedBy("this")
+    private int getLastPageIndex() {
+        return (mTotalCount > 0) ? (mTotalCount - 1) / mPageSize : Integer.MAX_VALUE;
+    }
+
+    /**
+     * Drops the loaded pages if they were queried with another sort order than
+     * {@code queryArgs} ask for, e.g. because the user sorted by another column. Pages of
+     * different orders can't be put together.
+     */
+    synchronized void setSortOrder(Bundle queryArgs) {
+        final String sortOrder = getSortOrder(queryArgs);
+        if (!Objects.equals(sortOrder, mSortOrder)) {
+            mSortOrder = sortOrder;
+            invalidate();
+        }
+    }
+
+    private static String getSortOrder(Bundle queryArgs) {
+        return Arrays.toString(queryArgs.getStringArray(ContentResolver.QUERY_ARG_SORT_COLUMNS))
+                + "/" + queryArgs.getInt(ContentResolver.QUERY_ARG_SORT_DIRECTION, -1);
+    }
+
+    /** Returns the page loaded before, or null if it has to be queried. */
+    synchronized @Nullable DocumentTable getPage(int page) {
+        return mPages.get(page);
+    }
+
+    /**
+     * Records the pages that were loaded. Pages outside of them are dropped.
+     *
+     * @param totalCount the number of documents in the listing, as reported by the provider
+     */
+    synchronized void onPagesLoaded(
+            int firstPage, int lastPage, Map<Integer, DocumentTable> pages, int totalCount) {
+        mLoadedFirstPage = firstPage;
+        mLoadedLastPage = lastPage;
+        mPages = pages;
+        mTotalCount = totalCount;
+    }
+
+    /** Drops all loaded pages, because the listing changed. */
+    synchronized void invalidate() {
+        mPages = new HashMap<>();
+        mLoadedFirstPage = -1;
+        mLoadedLastPage = -1;
+    }
+
+    /** Returns whether pages that aren't loaded yet are wanted. */
+    synchronized boolean needsLoad() {
+        return mEnabled && mLoadedFirstPage != -1
+                && (getFirstPage() < mLoadedFirstPage || getLastPage() > mLoadedLastPage);
+    }
+
+    /**
+     * Moves the window of pages to load so that it contains the documents from
+     * {@code firstPosition} to {@code lastPosition} of {@code shown}, plus a page ahead in scroll
+     * direction. Positions are counted among all documents of the listing, loaded or not.
+     *
+     * @return whether pages that aren't loaded yet are now wanted.
+     */
+    synchronized boolean moveWindow(
+            DirectoryResult shown, int firstPosition, int lastPosition, boolean forward) {
+        if (!mEnabled || mLoadedFirstPage == -1) {
+            return false;
+        }
+
+        int first = toOffset(shown, firstPosition) / mPageSize;
+        int last = toOffset(shown, lastPosition) / mPageSize;
+        if (forward) {
+            last += PREFETCH_PAGES;
+        } else {
+            first -= PREFETCH_PAGES;
+        }
+
+        // Keep the pages loaded already, as long as the window stays bounded. Pages behind the
+        // scroll direction are dropped first.
+        first = Math.max(0, Math.min(first, mLoadedFirstPage));
+        last = Math.min(getLastPageIndex(), Math.max(last, mLoadedLastPage));
+        if (last - first + 1 > MAX_RESIDENT_PAGES) {
+            if (forward) {
+                first = last - MAX_RESIDENT_PAGES + 1;
+            } else {
+                last = first + MAX_RESIDENT_PAGES - 1;
+            }
+        }
+        mFirstPage = first;
+        mLastPage = last;
+        return needsLoad();
+    }
+
+    /**
+     * Converts a position among all documents of {@code shown} to an offset in the provider's
+     * results. Loaded documents may have been filtered, so offsets within the loaded pages are
+     * only approximate.
+     */
+    @GuardedBy("this")
+    private int toOffset(DirectoryResult shown, int position) {
+        final int before = shown.getUnloadedBefore();
+        final DocumentTable table = shown.getTable();
+        final int loaded = (table != null) ? table.getCount() : 0;
+        if (position < before + loaded) {
+            return position;
+        }
+        final int loadedEnd = Math.max(before, mTotalCount - shown.getUnloadedAfter());
+        return loadedEnd + (position - before - loaded);
+    }
+}
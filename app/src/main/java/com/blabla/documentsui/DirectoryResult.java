@@ -16,16 +16,18 @@
 
 package com.blabla.documentsui;
 
-import static com.blabla.documentsui.base.DocumentInfo.getCursorString;
-
 import android.content.ContentProviderClient;
 import android.database.Cursor;
 import android.os.FileUtils;
-import android.provider.DocumentsContract;
 import android.util.Log;
 
+import androidx.annotation.Nullable;
+
 import com.blabla.documentsui.archives.ArchivesProvider;
 import com.blabla.documentsui.base.DocumentInfo;
+import com.blabla.documentsui.base.Lookup;
+import com.blabla.documentsui.sorting.SortKeyCache;
+import com.blabla.documentsui.sorting.SortModel;
 
 import java.util.HashSet;
 import java.util.Set;
@@ -39,26 +41,137 @@ public class DirectoryResult implements AutoCloseable {
     ContentProviderClient client;
 
     private Cursor mCursor;
+    private DocumentTable mTable;
     private Set<String> mFileNames;
     private String[] mModelIds;
+    // The changes since the result this one was loaded after, if known. See #getDelta.
+    private @Nullable DirectoryDelta mDelta;
+    // The number of documents of a paged listing before and after the loaded rows. See #isPaged.
+    private int mUnloadedBefore;
+    private int mUnloadedAfter;
+
+    // Set while this result borrows the cursor and client of the result it was re-sorted from.
+    // See #resort and #takeOwnership.
+    private @Nullable DirectoryResult mOwner;
+
+    // Set once the rows have been read, cleared when they may no longer reflect the provider.
+    // See #isValid.
+    private volatile boolean mValid;
 
     @Override
     public void close() {
-        FileUtils.closeQuietly(mCursor);
-        if (client != null && doc.isInArchive()) {
-            ArchivesProvider.releaseArchive(client, doc.derivedUri);
+        mValid = false;
+        if (mOwner == null) {
+            FileUtils.closeQuietly(mCursor);
+            if (client != null && doc.isInArchive()) {
+                ArchivesProvider.releaseArchive(client, doc.derivedUri);
+            }
+            FileUtils.closeQuietly(client);
         }
-        FileUtils.closeQuietly(client);
+        mOwner = null;
         client = null;
         doc = null;
 
         setCursor(null);
     }
 
+    /**
+     * Creates a result with the same rows ordered by the current dimension of {@code sortModel},
+     * without querying the provider again. The new result borrows the cursor and client of this
+     * one until {@link #takeOwnership()} is called. Must not be called from UI thread.
+     *
+     * @param keyCache the sort keys of the previous sort, or null.
+     * @return the re-sorted result, or null if this result has no rows that can be re-sorted.
+     */
+    @Nullable DirectoryResult resort(SortModel sortModel, Lookup<String, String> fileTypeLookup,
+            @Nullable SortKeyCache keyCache) {
+        ThreadHelper.assertNotOnMainThread();
+        final DocumentTable table = mTable;
+        final String[] modelIds = mModelIds;
+        if (exception != null || table == null || modelIds == null || isPaged()) {
+            // The loaded pages of a paged listing are only a slice of it, they can't be
+            // re-sorted on their own.
+            return null;
+        }
+
+        final int[] order = sortModel.sortTable(table, fileTypeLookup, keyCache);
+        if (order == null) {
+            return null;
+        }
+
+        final DirectoryResult result = new DirectoryResult();
+        result.doc = doc;
+        result.client = client;
+        result.mCursor = mCursor;
+        result.mOwner = this;
+        result.mTable = table.reorder(order);
+        result.mFileNames = mFileNames;
+        result.mModelIds = new String[order.length];
+        for (int i = 0; i < order.length; i++) {
+            result.mModelIds[i] = modelIds[order[i]];
+        }
+        result.mDelta = DirectoryDelta.reordered(modelIds);
+        result.mValid = mValid;
+        return result;
+    }
+
+    /**
+     * Creates a result from a snapshot kept by {@link DirectorySnapshotCache}. The result has no
+     * cursor or client, its rows are served from {@code table} alone.
+     */
+    static DirectoryResult fromSnapshot(DocumentInfo doc, DocumentTable table, String[] modelIds,
+            Set<String> fileNames) {
+        final DirectoryResult result = new DirectoryResult();
+        result.doc = doc;
+        result.mTable = table;
+        result.mModelIds = modelIds;
+        result.mFileNames = fileNames;
+        result.mValid = true;
+        return result;
+    }
+
+    /**
+     * Makes a re-sorted result the owner of the cursor and client it borrowed, so that closing
+     * the result it was sorted from doesn't release them. No-op for other results. Must be called
+     * from UI thread, before the previous result is closed.
+     */
+    void takeOwnership() {
+        if (mOwner != null) {
+            mOwner.mCursor = null;
+            mOwner.client = null;
+            mOwner = null;
+        }
+    }
+
+    /**
+     * Returns whether the rows of this result can still be shown without reloading. This is a
+     * constant time check, the cursor isn't touched. A result is valid once its rows have been
+     * read, until it is closed or {@link #invalidate()} is called.
+     */
+    public boolean isValid() {
+        return mValid;
+    }
+
+    /**
+     * Marks the rows of this result as outdated, e.g. because the content changed or the
+     * provider went away. Can be called from any thread.
+     */
+    public void invalidate() {
+        mValid = false;
+    }
+
     public Cursor getCursor() {
         return mCursor;
     }
 
+    /**
+     * Returns the snapshot of the rows in {@link #getCursor()}, in display order, or null if the
+     * cursor could not be read.
+     */
+    public DocumentTable getTable() {
+        return mTable;
+    }
+
     public String[] getModelIds() {
         return mModelIds;
     }
@@ -67,46 +180,127 @@ public class DirectoryResult implements AutoCloseable {
         return mFileNames;
     }
 
+    /**
+     * Returns whether only a window of the listing was loaded, see {@link #setPages}. The
+     * documents outside of it are counted by {@link #getUnloadedBefore()} and
+     * {@link #getUnloadedAfter()}.
+     */
+    public boolean isPaged() {
+        return mUnloadedBefore > 0 || mUnloadedAfter > 0;
+    }
+
+    /** Returns the number of documents of a paged listing before the loaded rows. */
+    public int getUnloadedBefore() {
+        return mUnloadedBefore;
+    }
+
+    /** Returns the number of documents of a paged listing after the loaded rows. */
+    public int getUnloadedAfter() {
+        return mUnloadedAfter;
+    }
+
+    /**
+     * Returns the documents that were inserted, removed or changed since the result this one
+     * was loaded after, or null if they aren't known. See {@link #setCursor(Cursor,
+     * DirectoryResult)}.
+     */
+    public @Nullable DirectoryDelta getDelta() {
+        return mDelta;
+    }
+
     /** Update the cursor and populate cursor-related fields. */
     public void setCursor(Cursor cursor) {
+        setCursor(cursor, /* previous= */ null);
+    }
+
+    /**
+     * Update the cursor and populate cursor-related fields. If {@code previous} holds an earlier
+     * load of the same listing, the rows are compared against it, see {@link #getDelta()}.
+     */
+    public void setCursor(Cursor cursor, @Nullable DirectoryResult previous) {
+        // Read the previous rows up front, it may be closed on the UI thread meanwhile.
+        final String[] previousIds = (previous != null) ? previous.mModelIds : null;
+        final DocumentTable previousTable = (previous != null) ? previous.mTable : null;
+
         mCursor = cursor;
 
+        mValid = false;
+        mDelta = null;
+        mUnloadedBefore = 0;
+        mUnloadedAfter = 0;
         if (mCursor == null) {
+            mTable = null;
             mFileNames = null;
             mModelIds = null;
         } else {
             loadDataFromCursor();
+            if (mTable != null && previousIds != null && previousTable != null
+                    && previousIds.length == previousTable.getCount()) {
+                mDelta = DirectoryDelta.compute(previousIds, previousTable, mModelIds, mTable);
+            }
         }
     }
 
+    /**
+     * Sets rows that were already read into a table, e.g. merged from several cursors. The
+     * table also serves as the cursor of this result.
+     */
+    void setTable(DocumentTable table) {
+        setPages(table, table, 0, 0);
+    }
+
+    /**
+     * Sets the loaded pages of a paged listing. {@code cursor} is only kept to be notified of
+     * changes and closed with this result, the rows are served from {@code table}.
+     *
+     * @param unloadedBefore the number of documents in the listing before {@code table}
+     * @param unloadedAfter the number of documents in the listing after {@code table}
+     */
+    void setPages(Cursor cursor, DocumentTable table, int unloadedBefore, int unloadedAfter) {
+        ThreadHelper.assertNotOnMainThread();
+        mCursor = cursor;
+        mValid = false;
+        mDelta = null;
+        mUnloadedBefore = unloadedBefore;
+        mUnloadedAfter = unloadedAfter;
+        loadDataFromTable(table);
+    }
+
     /** Populate cursor-related field. Must not be called from UI thread. */
     private void loadDataFromCursor() {
         ThreadHelper.assertNotOnMainThread();
-        int cursorCount = mCursor.getCount();
-        String[] modelIds = new String[cursorCount];
-        Set<String> fileNames = new HashSet<>();
+        final DocumentTable table;
         try {
-            mCursor.moveToPosition(-1);
-            for (int pos = 0; pos < cursorCount; ++pos) {
-                if (!mCursor.moveToNext()) {
-                    Log.e(TAG, "Fail to move cursor to next pos: " + pos);
-                    return;
-                }
-
-                // Generates a Model ID for a cursor entry that refers to a document. The Model
-                // ID is a unique string that can be used to identify the document referred to by
-                // the cursor. Prefix the ids with the authority to avoid collisions.
-                modelIds[pos] = ModelId.build(mCursor);
-                fileNames.add(
-                        getCursorString(mCursor, DocumentsContract.Document.COLUMN_DISPLAY_NAME));
-            }
+            table = DocumentTable.fromCursor(mCursor);
         } catch (Exception e) {
             Log.e(TAG, "Exception when moving cursor. Stale cursor?", e);
             return;
         }
+        if (table == null) {
+            Log.e(TAG, "Fail to move cursor to next pos.");
+            return;
+        }
+        loadDataFromTable(table);
+    }
+
+    private void loadDataFromTable(DocumentTable table) {
+        final int count = table.getCount();
+        String[] modelIds = new String[count];
+        Set<String> fileNames = new HashSet<>();
+        final ModelId.Builder modelIdBuilder = new ModelId.Builder();
+        for (int pos = 0; pos < count; ++pos) {
+            // Generates a Model ID for a cursor entry that refers to a document. The Model
+            // ID is a unique string that can be used to identify the document referred to by
+            // the cursor. Prefix the ids with the authority to avoid collisions.
+            modelIds[pos] = modelIdBuilder.build(table.getUserIdIdentifier(pos),
+                    table.getAuthority(pos), table.getDocumentId(pos));
+            fileNames.add(table.getDisplayName(pos));
+        }
 
         // Model related data is only non-null when no error iterating through cursor.
+        mTable = table;
         mModelIds = modelIds;
         mFileNames = fileNames;
+        mValid = true;
     }
 }
@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.blabla.documentsui;
+
+import static androidx.core.util.Preconditions.checkNotNull;
+
+import android.content.ComponentCallbacks2;
+import android.net.Uri;
+import android.util.LruCache;
+
+import androidx.annotation.Nullable;
+
+import com.blabla.documentsui.base.DocumentInfo;
+import com.blabla.documentsui.base.UserId;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * An LRU cache of recently loaded directory listings, bounded by the estimated memory of the
+ * listings. It allows a directory that was left moments ago to be shown again right away, while
+ * it is reloaded from the provider in background.
+ *
+ * <p>Entries only hold the {@link DocumentTable} snapshot of a result, never its cursor or
+ * provider client, so they don't keep any provider resources alive.
+ */
+public class DirectorySnapshotCache {
+
+    // Rough per row overhead of a table, on top of the characters of its strings.
+    private static final int BYTES_PER_ROW = 96;
+
+    private final Cache mCache;
+
+    /**
+     * Creates a snapshot cache.
+     *
+     * @param maxCacheSizeInBytes the estimated size of the listings this cache can hold.
+     */
+    public DirectorySnapshotCache(int maxCacheSizeInBytes) {
+        mCache = new Cache(maxCacheSizeInBytes);
+    }
+
+    /**
+     * Returns a new result holding the snapshot cached for {@code key}, or null on cache miss.
+     * The result doesn't have a cursor, and should be replaced with a freshly loaded one.
+     */
+    public @Nullable DirectoryResult get(Key key) {
+        final Entry entry = mCache.get(key);
+        if (entry == null) {
+            return null;
+        }
+        return DirectoryResult.fromSnapshot(
+                entry.mDoc, entry.mTable, entry.mModelIds, entry.mFileNames);
+    }
+
+    /**
+     * Puts the snapshot of {@code result} in to the cache. Results that failed to load are
+     * removed from the cache instead.
+     */
+    public void put(Key key, DirectoryResult result) {
+        final DocumentTable table = result.getTable();
+        if (result.exception != null || !result.isValid() || table == null) {
+            mCache.remove(key);
+            return;
+        }
+        mCache.put(key, new Entry(result.doc, table, result.getModelIds(), result.getFileNames()));
+    }
+
+    /** Removes all snapshots of the given uri, whatever order and filters they were taken with. */
+    public void removeUri(Uri uri, UserId userId) {
+        for (Key key : mCache.snapshot().keySet()) {
+            if (key.uri.equals(uri) && key.userId.equals(userId)) {
+                mCache.remove(key);
+            }
+        }
+    }
+
+    public void onTrimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            mCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            mCache.trimToSize(mCache.size() / 2);
+        }
+    }
+
+    /** Returns the number of times {@link #get} returned a snapshot. */
+    public int getHitCount() {
+        return mCache.hitCount();
+    }
+
+    /** Returns the number of times {@link #get} returned null. */
+    public int getMissCount() {
+        return mCache.missCount();
+    }
+
+    /** Prints the hits and misses of the cache, for tuning its size. */
+    public void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + this);
+    }
+
+    @Override
+    public String toString() {
+        return "DirectorySnapshotCache{"
+                + "hits=" + getHitCount()
+                + ", misses=" + getMissCount()
+                + ", entries=" + mCache.snapshot().size()
+                + ", bytes=" + mCache.size()
+                + "}";
+    }
+
+    /**
+     * Identifies a listing: the same directory loaded with a different order or different
+     * filters is a different listing.
+     */
+    public static final class Key {
+        final Uri uri;
+        final UserId userId;
+        final int sortDimensionId;
+        final int sortDirection;
+        final boolean showHiddenFiles;
+        final @Nullable String[] acceptMimes;
+
+        public Key(Uri uri, UserId userId, int sortDimensionId, int sortDirection,
+                boolean showHiddenFiles, @Nullable String[] acceptMimes) {
+            this.uri = checkNotNull(uri);
+            this.userId = checkNotNull(userId);
+            this.sortDimensionId = sortDimensionId;
+            this.sortDirection = sortDirection;
+            this.showHiddenFiles = showHiddenFiles;
+            this.acceptMimes = acceptMimes;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == null) {
+                return false;
+            }
+
+            if (this == o) {
+                return true;
+            }
+
+            if (o instanceof Key) {
+                Key other = (Key) o;
+                return Objects.equals(uri, other.uri)
+                        && Objects.equals(userId, other.userId)
+                        && sortDimensionId == other.sortDimensionId
+                        && sortDirection == other.sortDirection
+                        && showHiddenFiles == other.showHiddenFiles
+                        && Arrays.equals(acceptMimes, other.acceptMimes);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(uri, userId, sortDimensionId, sortDirection, showHiddenFiles,
+                    Arrays.hashCode(acceptMimes));
+        }
+    }
+
+    private static final class Entry {
+        private final DocumentInfo mDoc;
+        private final DocumentTable mTable;
+        private final String[] mModelIds;
+        private final Set<String> mFileNames;
+        private final int mSizeInBytes;
+
+        private Entry(DocumentInfo doc, DocumentTable table, String[] modelIds,
+                Set<String> fileNames) {
+            mDoc = doc;
+            mTable = table;
+            mModelIds = modelIds;
+            mFileNames = fileNames;
+            mSizeInBytes = estimateSizeInBytes(table, modelIds);
+        }
+
+        private static int estimateSizeInBytes(DocumentTable table, String[] modelIds) {
+            long chars = 0;
+            final int count = table.getCount();
+            for (int row = 0; row < count; row++) {
+                chars += length(table.getDocumentId(row))
+                        + length(table.getDisplayName(row))
+                        + length(table.getSummary(row))
+                        + length(modelIds[row]);
+            }
+            return (int) Math.min(Integer.MAX_VALUE, (long) count * BYTES_PER_ROW + chars * 2);
+        }
+
+        private static int length(@Nullable String value) {
+            return (value != null) ? value.length() : 0;
+        }
+    }
+
+    private static final class Cache extends LruCache<Key, Entry> {
+
+        private Cache(int maxSizeBytes) {
+            super(maxSizeBytes);
+        }
+
+        @Override
+        protected int sizeOf(Key key, Entry value) {
+            return value.mSizeInBytes;
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.blabla.documentsui;
+
+import static com.blabla.documentsui.base.SharedMinimal.DEBUG;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Point;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+
+import com.blabla.documentsui.base.UserId;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The second level of {@link ThumbnailCache}: compressed thumbnails in the cache directory, so
+ * that they survive the memory cache being trimmed and the process being restarted.
+ *
+ * <p>Thumbnails are keyed by uri, user, size bucket and the last modified time of the document,
+ * so a document that changed is never served an old thumbnail. Thumbnails are written in the
+ * background, and the least recently used ones are deleted once the cache grows past its size.
+ */
+public class DiskThumbnailCache {
+
+    private static final String TAG = "DiskThumbnailCache";
+
+    public static final long DEFAULT_MAX_SIZE_BYTES = 48 * 1024 * 1024;
+
+    private static final int JPEG_QUALITY = 90;
+    // Thumbnails waiting to be written hold on to their bitmap. Past this many, thumbnails are
+    // not written.
+    private static final int MAX_PENDING_WRITES = 32;
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final File mDir;
+    private final long mMaxSizeBytes;
+    private final @Nullable BitmapPool mBitmapPool;
+    private final ExecutorService mWriteExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicInteger mPendingWrites = new AtomicInteger();
+
+    // The size of each thumbnail file, least recently used first.
+    @GuardedBy("mEntries")
+    private final LinkedHashMap<String, Long> mEntries =
+            new LinkedHashMap<>(/* initialCapacity= */ 256, /* loadFactor= */ 0.75f,
+                    /* accessOrder= */ true);
+    @GuardedBy("mEntries")
+    private long mSizeBytes;
+    @GuardedBy("mEntries")
+    private boolean mLoaded;
+
+    /**
+     * @param bitmapPool where thumbnails are decoded in to, if it has a bitmap that fits.
+     */
+    public DiskThumbnailCache(File dir, long maxSizeBytes, @Nullable BitmapPool bitmapPool) {
+        mDir = dir;
+        mMaxSizeBytes = maxSizeBytes;
+        mBitmapPool = bitmapPool;
+    }
+
+    /**
+     * Provides initialization of the thumbnail storage directory.
+     */
+    public static File prepareStorage(File cacheDir) {
+        final File dir = new File(cacheDir, "thumbnails");
+        dir.mkdir();
+        return dir;
+    }
+
+    /**
+     * Returns the thumbnail of {@code uri} for the bucket of {@code size}, if it was written for
+     * the same last modified time and is at least as large as {@code size}. A thumbnail written
+     * for a smaller size of the bucket isn't returned, it's replaced once the thumbnail for
+     * {@code size} is put. Must not be called from UI thread.
+     */
+    public @Nullable Bitmap get(Uri uri, UserId userId, Point size, long lastModified) {
+        final String name = getName(uri, userId, size, lastModified);
+        synchronized (mEntries) {
+            loadLocked();
+            if (mEntries.get(name) == null) {
+                return null;
+            }
+        }
+
+        final File file = new File(mDir, name);
+        final BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(file.getPath(), bounds);
+        if (bounds.outWidth > 0 && bounds.outHeight > 0
+                && Math.max(bounds.outWidth, bounds.outHeight) < Math.max(size.x, size.y)) {
+            return null;
+        }
+
+        final Bitmap thumbnail = decode(file, bounds.outWidth, bounds.outHeight);
+        if (thumbnail == null) {
+            Log.w(TAG, "Failed to decode thumbnail for " + uri + ", deleting it.");
+            synchronized (mEntries) {
+                removeLocked(name);
+            }
+            return null;
+        }
+        // Keep the order of use across restarts, see loadLocked().
+        file.setLastModified(System.currentTimeMillis());
+        return thumbnail;
+    }
+
+    /**
+     * Decodes a thumbnail, in to a pooled bitmap if there is one that fits. The bitmap is mutable,
+     * so that it can be pooled again once it's dropped from the memory cache.
+     */
+    private @Nullable Bitmap decode(File file, int width, int height) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inMutable = true;
+        if (mBitmapPool != null && width > 0 && height > 0) {
+            options.inBitmap = mBitmapPool.get(width, height);
+        }
+        try {
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        } catch (IllegalArgumentException e) {
+            // The pooled bitmap can't hold the thumbnail after all.
+            options.inBitmap = null;
+            return BitmapFactory.decodeFile(file.getPath(), options);
+        }
+    }
+
+    /**
+     * Writes a thumbnail in the background. The bitmap is retained in the pool until it is
+     * written. Can be called from any thread.
+     */
+    public void put(Uri uri, UserId userId, Point size, Bitmap thumbnail, long lastModified) {
+        if (mPendingWrites.incrementAndGet() > MAX_PENDING_WRITES) {
+            mPendingWrites.decrementAndGet();
+            if (DEBUG) {
+                Log.d(TAG, "Too many pending writes, not writing thumbnail for " + uri);
+            }
+            return;
+        }
+        if (mBitmapPool != null) {
+            mBitmapPool.retain(thumbnail);
+        }
+        mWriteExecutor.execute(() -> {
+            try {
+                write(getName(uri, userId, size, lastModified), thumbnail);
+            } finally {
+                mPendingWrites.decrementAndGet();
+                if (mBitmapPool != null) {
+                    mBitmapPool.release(thumbnail);
+                }
+            }
+        });
+    }
+
+    /**
+     * Deletes the thumbnails of {@code uri} of all sizes in the background. Can be called from
+     * any thread.
+     */
+    public void removeUri(Uri uri, UserId userId) {
+        mWriteExecutor.execute(() -> {
+            final String prefix = getUriPrefix(uri, userId);
+            synchronized (mEntries) {
+                loadLocked();
+                final Iterator<Map.Entry<String, Long>> it = mEntries.entrySet().iterator();
+                while (it.hasNext()) {
+                    final Map.Entry<String, Long> entry = it.next();
+                    if (entry.getKey().startsWith(prefix)) {
+                        mSizeBytes -= entry.getValue();
+                        new File(mDir, entry.getKey()).delete();
+                        it.remove();
+                    }
+                }
+            }
+        });
+    }
+
+    private void write(String name, Bitmap thumbnail) {
+        final File tmp = new File(mDir, name + TMP_SUFFIX);
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp))) {
+            // Thumbnails with transparency, e.g. icons, would get a black background as JPEG.
+            if (!thumbnail.compress(
+                    thumbnail.hasAlpha() ? Bitmap.CompressFormat.PNG : Bitmap.CompressFormat.JPEG,
+                    JPEG_QUALITY, out)) {
+                throw new IOException("Failed to compress thumbnail");
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write thumbnail " + name, e);
+            tmp.delete();
+            return;
+        }
+
+        final File file = new File(mDir, name);
+        synchronized (mEntries) {
+            loadLocked();
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                return;
+            }
+            // Thumbnails of the same document and size for an older last modified time can't be
+            // used anymore.
+            final String sizePrefix = name.substring(0, name.lastIndexOf('_') + 1);
+            final Iterator<Map.Entry<String, Long>> it = mEntries.entrySet().iterator();
+            while (it.hasNext()) {
+                final Map.Entry<String, Long> entry = it.next();
+                if (entry.getKey().startsWith(sizePrefix) && !entry.getKey().equals(name)) {
+                    mSizeBytes -= entry.getValue();
+                    new File(mDir, entry.getKey()).delete();
+                    it.remove();
+                }
+            }
+
+            final Long previous = mEntries.put(name, file.length());
+            mSizeBytes += file.length() - (previous != null ? previous : 0);
+            trimLocked();
+        }
+    }
+
+    @GuardedBy("mEntries")
+    private void trimLocked() {
+        final Iterator<Map.Entry<String, Long>> it = mEntries.entrySet().iterator();
+        while (mSizeBytes > mMaxSizeBytes && it.hasNext()) {
+            final Map.Entry<String, Long> eldest = it.next();
+            mSizeBytes -= eldest.getValue();
+            new File(mDir, eldest.getKey()).delete();
+            it.remove();
+        }
+    }
+
+    @GuardedBy("mEntries")
+    private void removeLocked(String name) {
+        final Long size = mEntries.remove(name);
+        if (size != null) {
+            mSizeBytes -= size;
+        }
+        new File(mDir, name).delete();
+    }
+
+    /** Reads the thumbnails from the directory, once, least recently used first. */
+    @GuardedBy("mEntries")
+    private void loadLocked() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+
+        final File[] files = mDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (file.getName().endsWith(TMP_SUFFIX)) {
+                // Left over by a write that didn't finish.
+                file.delete();
+                continue;
+            }
+            mEntries.put(file.getName(), file.length());
+            mSizeBytes += file.length();
+        }
+        trimLocked();
+        if (DEBUG) {
+            Log.d(TAG, "Found " + mEntries.size() + " thumbnails, " + mSizeBytes + " bytes.");
+        }
+    }
+
+    private static String getName(Uri uri, UserId userId, Point size, long lastModified) {
+        return getUriPrefix(uri, userId) + getSizeBucket(size) + "_" + lastModified;
+    }
+
+    private static String getUriPrefix(Uri uri, UserId userId) {
+        return hash(userId.getIdentifier() + "/" + uri) + "_";
+    }
+
+    /**
+     * Returns the bucket of a thumbnail size, the next power of two of its larger dimension.
+     * Sizes that differ a little, e.g. between grid layouts, share a thumbnail.
+     */
+    private static int getSizeBucket(Point size) {
+        final int max = Math.max(1, Math.max(size.x, size.y));
+        final int bucket = Integer.highestOneBit(max);
+        return (bucket == max) ? bucket : bucket << 1;
+    }
+
+    private static String hash(String value) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1")
+                    .digest(value.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder builder = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16));
+                builder.append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,498 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.blabla.documentsui;
+
+import android.content.ContentProviderClient;
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteException;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.RemoteException;
+import android.provider.DocumentsContract.Document;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.blabla.documentsui.base.UserId;
+import com.blabla.documentsui.roots.RootCursorWrapper;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable, columnar snapshot of a directory listing. It is built once from the (possibly
+ * wrapped) provider cursor on a background thread, after which rows can be read by index without
+ * going back through the cursor wrapper chain or across IPC.
+ *
+ * <p>The table is also a {@link Cursor} exposing the document columns that DocumentsUI reads, so
+ * it can be handed to code such as {@link com.blabla.documentsui.dirlist.DocumentHolder} that
+ * still consumes cursors. Moving it is a simple index change.
+ */
+public final class DocumentTable extends AbstractCursor {
+
+    private static final String TAG = "DocumentTable";
+
+    // The provider columns of COLUMNS. Filtering, sorting and the table itself never look at
+    // anything else, so this is the projection listings are queried with, see query().
+    private static final String[] PROJECTION = new String[] {
+            Document.COLUMN_DOCUMENT_ID,
+            Document.COLUMN_MIME_TYPE,
+            Document.COLUMN_DISPLAY_NAME,
+            Document.COLUMN_LAST_MODIFIED,
+            Document.COLUMN_FLAGS,
+            Document.COLUMN_SUMMARY,
+            Document.COLUMN_SIZE,
+            Document.COLUMN_ICON
+    };
+
+    private static final String[] COLUMNS = new String[] {
+            Document.COLUMN_DOCUMENT_ID,
+            Document.COLUMN_MIME_TYPE,
+            Document.COLUMN_DISPLAY_NAME,
+            Document.COLUMN_LAST_MODIFIED,
+            Document.COLUMN_FLAGS,
+            Document.COLUMN_SUMMARY,
+            Document.COLUMN_SIZE,
+            Document.COLUMN_ICON,
+            RootCursorWrapper.COLUMN_AUTHORITY,
+            RootCursorWrapper.COLUMN_ROOT_ID,
+            RootCursorWrapper.COLUMN_USER_ID
+    };
+
+    private static final int COLUMN_DOCUMENT_ID = 0;
+    private static final int COLUMN_MIME_TYPE = 1;
+    private static final int COLUMN_DISPLAY_NAME = 2;
+    private static final int COLUMN_LAST_MODIFIED = 3;
+    private static final int COLUMN_FLAGS = 4;
+    private static final int COLUMN_SUMMARY = 5;
+    private static final int COLUMN_SIZE = 6;
+    private static final int COLUMN_ICON = 7;
+    private static final int COLUMN_AUTHORITY = 8;
+    private static final int COLUMN_ROOT_ID = 9;
+    private static final int COLUMN_USER_ID = 10;
+
+    private final int mCount;
+    private final String[] mDocumentIds;
+    private final String[] mMimeTypes;
+    private final String[] mDisplayNames;
+    private final String[] mSummaries;
+    private final String[] mAuthorities;
+    private final String[] mRootIds;
+    private final long[] mLastModified;
+    private final long[] mSizes;
+    private final int[] mFlags;
+    private final int[] mIcons;
+    private final int[] mUserIds;
+    private final Bundle mExtras;
+
+    private DocumentTable(int count, Bundle extras) {
+        mCount = count;
+        mDocumentIds = new String[count];
+        mMimeTypes = new String[count];
+        mDisplayNames = new String[count];
+        mSummaries = new String[count];
+        mAuthorities = new String[count];
+        mRootIds = new String[count];
+        mLastModified = new long[count];
+        mSizes = new long[count];
+        mFlags = new int[count];
+        mIcons = new int[count];
+        mUserIds = new int[count];
+        mExtras = (extras != null) ? extras : Bundle.EMPTY;
+    }
+
+    /**
+     * Queries a listing of documents, asking the provider only for the columns a table reads.
+     * This keeps the provider from filling its cursor windows with columns nobody looks at, so
+     * more rows fit in a window and fewer window fills are needed to read the listing. Providers
+     * that reject the projection are queried again for all columns.
+     */
+    public static @Nullable Cursor query(ContentProviderClient client, Uri uri,
+            @Nullable Bundle queryArgs, @Nullable CancellationSignal signal)
+            throws RemoteException {
+        try {
+            return client.query(uri, PROJECTION, queryArgs, signal);
+        } catch (IllegalArgumentException | SQLiteException e) {
+            Log.w(TAG, "Provider rejected projection for " + uri + ", querying all columns.", e);
+            return client.query(uri, /* projection= */ null, queryArgs, signal);
+        }
+    }
+
+    /**
+     * Copies every row of {@code cursor} into a new table. Column indices are resolved once, and
+     * repeated values such as mime types and authorities are shared between rows. Must not be
+     * called from UI thread.
+     *
+     * @return the table, or null if the cursor could not be fully traversed.
+     */
+    public static @Nullable DocumentTable fromCursor(Cursor cursor) {
+        final int count = cursor.getCount();
+        final DocumentTable table = new DocumentTable(count, cursor.getExtras());
+
+        final int documentIdIndex = cursor.getColumnIndex(Document.COLUMN_DOCUMENT_ID);
+        final int mimeTypeIndex = cursor.getColumnIndex(Document.COLUMN_MIME_TYPE);
+        final int displayNameIndex = cursor.getColumnIndex(Document.COLUMN_DISPLAY_NAME);
+        final int lastModifiedIndex = cursor.getColumnIndex(Document.COLUMN_LAST_MODIFIED);
+        final int flagsIndex = cursor.getColumnIndex(Document.COLUMN_FLAGS);
+        final int summaryIndex = cursor.getColumnIndex(Document.COLUMN_SUMMARY);
+        final int sizeIndex = cursor.getColumnIndex(Document.COLUMN_SIZE);
+        final int iconIndex = cursor.getColumnIndex(Document.COLUMN_ICON);
+        final int authorityIndex = cursor.getColumnIndex(RootCursorWrapper.COLUMN_AUTHORITY);
+        final int rootIdIndex = cursor.getColumnIndex(RootCursorWrapper.COLUMN_ROOT_ID);
+        final int userIdIndex = cursor.getColumnIndex(RootCursorWrapper.COLUMN_USER_ID);
+
+        final Map<String, String> pool = new HashMap<>();
+        cursor.moveToPosition(-1);
+        for (int row = 0; row < count; row++) {
+            if (!cursor.moveToNext()) {
+                return null;
+            }
+            table.mDocumentIds[row] = readString(cursor, documentIdIndex);
+            table.mMimeTypes[row] = share(pool, readString(cursor, mimeTypeIndex));
+            table.mDisplayNames[row] = readString(cursor, displayNameIndex);
+            table.mSummaries[row] = readString(cursor, summaryIndex);
+            table.mAuthorities[row] = share(pool, readString(cursor, authorityIndex));
+            table.mRootIds[row] = share(pool, readString(cursor, rootIdIndex));
+            table.mLastModified[row] = readLong(cursor, lastModifiedIndex);
+            table.mSizes[row] = readLong(cursor, sizeIndex);
+            table.mFlags[row] = readInt(cursor, flagsIndex);
+            table.mIcons[row] = readInt(cursor, iconIndex);
+            table.mUserIds[row] = readInt(cursor, userIdIndex);
+        }
+        return table;
+    }
+
+    /**
+     * Returns a new table holding the same rows in a different order. Row {@code i} of the new
+     * table is row {@code order[i]} of this one.
+     */
+    public DocumentTable reorder(int[] order) {
+        final DocumentTable table = new DocumentTable(order.length, mExtras);
+        for (int row = 0; row < order.length; row++) {
+            final int from = order[row];
+            table.mDocumentIds[row] = mDocumentIds[from];
+            table.mMimeTypes[row] = mMimeTypes[from];
+            table.mDisplayNames[row] = mDisplayNames[from];
+            table.mSummaries[row] = mSummaries[from];
+            table.mAuthorities[row] = mAuthorities[from];
+            table.mRootIds[row] = mRootIds[from];
+            table.mLastModified[row] = mLastModified[from];
+            table.mSizes[row] = mSizes[from];
+            table.mFlags[row] = mFlags[from];
+            table.mIcons[row] = mIcons[from];
+            table.mUserIds[row] = mUserIds[from];
+        }
+        return table;
+    }
+
+    /**
+     * Returns a new table holding the rows of {@code tables} one after the other, e.g. the loaded
+     * pages of a listing. The extras are those of the last table.
+     */
+    public static DocumentTable concat(List<DocumentTable> tables) {
+        return concat(tables, tables.isEmpty() ? null : tables.get(tables.size() - 1).mExtras);
+    }
+
+    /** Same as {@link #concat(List)}, with the given extras. */
+    public static DocumentTable concat(List<DocumentTable> tables, @Nullable Bundle extras) {
+        int count = 0;
+        for (DocumentTable table : tables) {
+            count += table.mCount;
+        }
+        final DocumentTable result = new DocumentTable(count, extras);
+        int row = 0;
+        for (DocumentTable table : tables) {
+            final int n = table.mCount;
+            System.arraycopy(table.mDocumentIds, 0, result.mDocumentIds, row, n);
+            System.arraycopy(table.mMimeTypes, 0, result.mMimeTypes, row, n);
+            System.arraycopy(table.mDisplayNames, 0, result.mDisplayNames, row, n);
+            System.arraycopy(table.mSummaries, 0, result.mSummaries, row, n);
+            System.arraycopy(table.mAuthorities, 0, result.mAuthorities, row, n);
+            System.arraycopy(table.mRootIds, 0, result.mRootIds, row, n);
+            System.arraycopy(table.mLastModified, 0, result.mLastModified, row, n);
+            System.arraycopy(table.mSizes, 0, result.mSizes, row, n);
+            System.arraycopy(table.mFlags, 0, result.mFlags, row, n);
+            System.arraycopy(table.mIcons, 0, result.mIcons, row, n);
+            System.arraycopy(table.mUserIds, 0, result.mUserIds, row, n);
+            row += n;
+        }
+        return result;
+    }
+
+    /**
+     * Writes the rows of this table to {@code out}, to be read back by {@link #readFrom}. The
+     * extras are not written.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(mCount);
+        for (int row = 0; row < mCount; row++) {
+            writeString(out, mDocumentIds[row]);
+            writeString(out, mMimeTypes[row]);
+            writeString(out, mDisplayNames[row]);
+            writeString(out, mSummaries[row]);
+            writeString(out, mAuthorities[row]);
+            writeString(out, mRootIds[row]);
+            out.writeLong(mLastModified[row]);
+            out.writeLong(mSizes[row]);
+            out.writeInt(mFlags[row]);
+            out.writeInt(mIcons[row]);
+            out.writeInt(mUserIds[row]);
+        }
+    }
+
+    /** Reads a table written by {@link #writeTo}. Must not be called from UI thread. */
+    public static DocumentTable readFrom(DataInput in) throws IOException {
+        final int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Invalid row count: " + count);
+        }
+        final DocumentTable table = new DocumentTable(count, null);
+        final Map<String, String> pool = new HashMap<>();
+        for (int row = 0; row < count; row++) {
+            table.mDocumentIds[row] = readString(in);
+            table.mMimeTypes[row] = share(pool, readString(in));
+            table.mDisplayNames[row] = readString(in);
+            table.mSummaries[row] = readString(in);
+            table.mAuthorities[row] = share(pool, readString(in));
+            table.mRootIds[row] = share(pool, readString(in));
+            table.mLastModified[row] = in.readLong();
+            table.mSizes[row] = in.readLong();
+            table.mFlags[row] = in.readInt();
+            table.mIcons[row] = in.readInt();
+            table.mUserIds[row] = in.readInt();
+        }
+        return table;
+    }
+
+    private static void writeString(DataOutput out, @Nullable String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static @Nullable String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static String share(Map<String, String> pool, @Nullable String value) {
+        if (value == null) {
+            return null;
+        }
+        final String shared = pool.putIfAbsent(value, value);
+        return (shared != null) ? shared : value;
+    }
+
+    private static String readString(Cursor cursor, int index) {
+        return (index != -1) ? cursor.getString(index) : null;
+    }
+
+    /**
+     * Same semantics as {@link com.blabla.documentsui.base.DocumentInfo#getCursorLong}: missing,
+     * null or unparsable values are returned as -1.
+     */
+    private static long readLong(Cursor cursor, int index) {
+        if (index == -1) return -1;
+        final String value = cursor.getString(index);
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static int readInt(Cursor cursor, int index) {
+        return (index != -1) ? cursor.getInt(index) : 0;
+    }
+
+    public String getDocumentId(int row) {
+        return mDocumentIds[row];
+    }
+
+    public String getMimeType(int row) {
+        return mMimeTypes[row];
+    }
+
+    public boolean isDirectory(int row) {
+        return Document.MIME_TYPE_DIR.equals(mMimeTypes[row]);
+    }
+
+    public String getDisplayName(int row) {
+        return mDisplayNames[row];
+    }
+
+    public String getSummary(int row) {
+        return mSummaries[row];
+    }
+
+    public String getAuthority(int row) {
+        return mAuthorities[row];
+    }
+
+    public String getRootId(int row) {
+        return mRootIds[row];
+    }
+
+    /** Returns the last modified time, or -1 if unknown. */
+    public long getLastModified(int row) {
+        return mLastModified[row];
+    }
+
+    /** Returns the size, or -1 if unknown. */
+    public long getSize(int row) {
+        return mSizes[row];
+    }
+
+    public int getFlags(int row) {
+        return mFlags[row];
+    }
+
+    public int getIcon(int row) {
+        return mIcons[row];
+    }
+
+    public UserId getUserId(int row) {
+        return UserId.of(mUserIds[row]);
+    }
+
+    public int getUserIdIdentifier(int row) {
+        return mUserIds[row];
+    }
+
+    @Override
+    public int getCount() {
+        return mCount;
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return COLUMNS;
+    }
+
+    @Override
+    public Bundle getExtras() {
+        return mExtras;
+    }
+
+    @Override
+    public String getString(int column) {
+        final int row = getPosition();
+        switch (column) {
+            case COLUMN_DOCUMENT_ID:
+                return mDocumentIds[row];
+            case COLUMN_MIME_TYPE:
+                return mMimeTypes[row];
+            case COLUMN_DISPLAY_NAME:
+                return mDisplayNames[row];
+            case COLUMN_SUMMARY:
+                return mSummaries[row];
+            case COLUMN_AUTHORITY:
+                return mAuthorities[row];
+            case COLUMN_ROOT_ID:
+                return mRootIds[row];
+            case COLUMN_LAST_MODIFIED:
+            case COLUMN_SIZE:
+                return isNull(column) ? null : Long.toString(getLong(column));
+            default:
+                return Integer.toString(getInt(column));
+        }
+    }
+
+    @Override
+    public long getLong(int column) {
+        final int row = getPosition();
+        switch (column) {
+            case COLUMN_LAST_MODIFIED:
+                return mLastModified[row];
+            case COLUMN_SIZE:
+                return mSizes[row];
+            default:
+                return getInt(column);
+        }
+    }
+
+    @Override
+    public int getInt(int column) {
+        final int row = getPosition();
+        switch (column) {
+            case COLUMN_FLAGS:
+                return mFlags[row];
+            case COLUMN_ICON:
+                return mIcons[row];
+            case COLUMN_USER_ID:
+                return mUserIds[row];
+            case COLUMN_LAST_MODIFIED:
+            case COLUMN_SIZE:
+                return (int) getLong(column);
+            default:
+                throw new NumberFormatException("Column " + COLUMNS[column] + " is not numeric");
+        }
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return getLong(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return getLong(column);
+    }
+
+    @Override
+    public int getType(int column) {
+        switch (column) {
+            case COLUMN_LAST_MODIFIED:
+            case COLUMN_SIZE:
+            case COLUMN_FLAGS:
+            case COLUMN_ICON:
+            case COLUMN_USER_ID:
+                return isNull(column) ? FIELD_TYPE_NULL : FIELD_TYPE_INTEGER;
+            default:
+                return isNull(column) ? FIELD_TYPE_NULL : FIELD_TYPE_STRING;
+        }
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        final int row = getPosition();
+        switch (column) {
+            case COLUMN_LAST_MODIFIED:
+                return mLastModified[row] == -1;
+            case COLUMN_SIZE:
+                return mSizes[row] == -1;
+            case COLUMN_FLAGS:
+            case COLUMN_ICON:
+            case COLUMN_USER_ID:
+                return false;
+            default:
+                return getString(column) == null;
+        }
+    }
+}
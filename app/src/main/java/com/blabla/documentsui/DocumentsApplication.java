@@ -65,6 +65,10 @@ public class DocumentsApplication extends Application {
 
     private ProvidersCache mProviders;
     private ThumbnailCache mThumbnailCache;
+    private DirectorySnapshotCache mDirectorySnapshotCache;
+    private QueryLatencyStats mQueryLatencyStats;
+    private RecentsIndex mRecentsIndex;
+    private ThumbnailExecutor mThumbnailExecutor;
     private ClipStorage mClipStore;
     private DocumentClipper mClipper;
     private DragAndDropManager mDragAndDropManager;
@@ -80,6 +84,26 @@ public class DocumentsApplication extends Application {
         return app.mThumbnailCache;
     }
 
+    public static ThumbnailExecutor getThumbnailExecutor(Context context) {
+        final DocumentsApplication app = (DocumentsApplication) context.getApplicationContext();
+        return app.mThumbnailExecutor;
+    }
+
+    public static DirectorySnapshotCache getDirectorySnapshotCache(Context context) {
+        final DocumentsApplication app = (DocumentsApplication) context.getApplicationContext();
+        return app.mDirectorySnapshotCache;
+    }
+
+    public static QueryLatencyStats getQueryLatencyStats(Context context) {
+        final DocumentsApplication app = (DocumentsApplication) context.getApplicationContext();
+        return app.mQueryLatencyStats;
+    }
+
+    public static RecentsIndex getRecentsIndex(Context context) {
+        final DocumentsApplication app = (DocumentsApplication) context.getApplicationContext();
+        return app.mRecentsIndex;
+    }
+
     public static ContentProviderClient acquireUnstableProviderOrThrow(
             ContentResolver resolver, String authority) throws RemoteException {
         final ContentProviderClient client = resolver.acquireUnstableContentProviderClient(
@@ -136,7 +160,17 @@ public class DocumentsApplication extends Application {
         mProviders = new ProvidersCache(this, mUserIdManager);
         mProviders.updateAsync(/* forceRefreshAll= */ false, /* callback= */  null);
 
-        mThumbnailCache = new ThumbnailCache(memoryClassBytes / 4);
+        final BitmapPool bitmapPool = new BitmapPool(memoryClassBytes / 32);
+        mThumbnailCache = new ThumbnailCache(memoryClassBytes / 4,
+                new DiskThumbnailCache(DiskThumbnailCache.prepareStorage(getCacheDir()),
+                        DiskThumbnailCache.DEFAULT_MAX_SIZE_BYTES, bitmapPool),
+                bitmapPool);
+        mThumbnailExecutor = new ThumbnailExecutor(ThumbnailExecutor.DEFAULT_MAX_THREADS,
+                ThumbnailExecutor.DEFAULT_MAX_THREADS_PER_AUTHORITY);
+        mDirectorySnapshotCache = new DirectorySnapshotCache(memoryClassBytes / 32);
+        mQueryLatencyStats = new QueryLatencyStats(
+                getSharedPreferences(QueryLatencyStats.PREF_NAME, 0));
+        mRecentsIndex = new RecentsIndex(this, RecentsIndex.prepareStorage(getCacheDir()));
 
         mClipStore = new ClipStorage(
                 ClipStorage.prepareStorage(getCacheDir()),
@@ -172,6 +206,7 @@ public class DocumentsApplication extends Application {
         super.onTrimMemory(level);
 
         mThumbnailCache.onTrimMemory(level);
+        mDirectorySnapshotCache.onTrimMemory(level);
     }
 
     private BroadcastReceiver mCacheReceiver = new BroadcastReceiver() {
@@ -181,6 +216,9 @@ public class DocumentsApplication extends Application {
             final String action = intent.getAction();
             if (PACKAGE_FILTER_ACTIONS.contains(action) && data != null) {
                 final String packageName = data.getSchemeSpecificPart();
+                // Recent documents of the package may be gone, let Recents query them again.
+                mRecentsIndex.remove(UserId.DEFAULT_USER,
+                        mProviders.getAuthoritiesForPackage(UserId.DEFAULT_USER, packageName));
                 mProviders.updatePackageAsync(UserId.DEFAULT_USER, packageName);
             } else if (MANAGED_PROFILE_FILTER_ACTIONS.contains(action)) {
                 // After we have reloaded roots. Resend the broadcast locally so the other
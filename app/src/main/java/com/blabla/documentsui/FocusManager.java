@@ -19,11 +19,9 @@ package com.blabla.documentsui;
 import static androidx.core.util.Preconditions.checkNotNull;
 import static com.blabla.documentsui.base.SharedMinimal.DEBUG;
 
-import android.database.Cursor;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.SystemClock;
-import android.provider.DocumentsContract.Document;
 import android.text.Editable;
 import android.text.Spannable;
 import android.text.method.KeyListener;
@@ -50,7 +48,6 @@ import com.blabla.documentsui.base.Procedure;
 import com.blabla.documentsui.dirlist.DocumentHolder;
 import com.blabla.documentsui.dirlist.DocumentsAdapter;
 import com.blabla.documentsui.dirlist.FocusHandler;
-import com.blabla.documentsui.base.DocumentInfo;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -583,11 +580,12 @@ public final class FocusManager extends FocusDelegate<String> implements FocusHa
         private void buildIndex() {
             int itemCount = mScope.adapter.getItemCount();
             List<String> index = new ArrayList<>(itemCount);
+            DocumentTable table = mScope.model.getTable();
             for (int i = 0; i < itemCount; i++) {
                 String modelId = mScope.adapter.getStableId(i);
-                Cursor cursor = mScope.model.getItem(modelId);
-                if (modelId != null && cursor != null) {
-                    String title = DocumentInfo.getCursorString(cursor, Document.COLUMN_DISPLAY_NAME);
+                int row = (modelId != null) ? mScope.model.getItemIndex(modelId) : -1;
+                if (row != -1) {
+                    String title = table.getDisplayName(row);
                     // Perform case-insensitive search.
                     index.add(title.toLowerCase());
                 } else {
@@ -22,20 +22,54 @@ import static com.blabla.documentsui.base.SharedMinimal.TAG;
 import android.database.ContentObserver;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
 /**
  * A custom {@link ContentObserver} which constructed by a {@link ContentLock}
  * and a {@link Runnable} callback. It will callback when it's onChange and ContentLock is unlock.
+ *
+ * <p>Providers like Downloads or MTP send bursts of change notifications. To not reload the
+ * contents for every single one of them, the callback is run at most once per minimum reload
+ * interval: a notification that arrives sooner after the previous callback is held back until
+ * the interval has passed, and all notifications arriving meanwhile are merged into that one
+ * callback.
  */
 public final class LockingContentObserver extends ContentObserver {
     private final ContentLock mLock;
     private final Runnable mContentChangedCallback;
+    private final long mMinReloadIntervalMillis;
+    private final Handler mHandler;
+    private final Runnable mDeliverCallback = this::deliverChange;
+
+    // All fields below are only accessed on the main thread.
+    private long mLastDeliveryTime = -1;
+    // Notifications received since the last callback.
+    private int mPendingCount;
+    private boolean mDeliveryScheduled;
+    private boolean mDeliverNextImmediately;
 
     public LockingContentObserver(ContentLock lock, Runnable contentChangedCallback) {
-        super(new Handler(Looper.getMainLooper()));
+        this(lock, contentChangedCallback, /* minReloadIntervalMillis= */ 0);
+    }
+
+    /**
+     * @param minReloadIntervalMillis the minimum time between two callbacks. Notifications
+     *     arriving sooner are merged into one callback, run once the interval has passed.
+     */
+    public LockingContentObserver(ContentLock lock, Runnable contentChangedCallback,
+            long minReloadIntervalMillis) {
+        this(new Handler(Looper.getMainLooper()), lock, contentChangedCallback,
+                minReloadIntervalMillis);
+    }
+
+    private LockingContentObserver(Handler handler, ContentLock lock,
+            Runnable contentChangedCallback, long minReloadIntervalMillis) {
+        super(handler);
+        mHandler = handler;
         mLock = lock;
         mContentChangedCallback = contentChangedCallback;
+        mMinReloadIntervalMillis = minReloadIntervalMillis;
     }
 
     @Override
@@ -48,6 +82,55 @@ public final class LockingContentObserver extends ContentObserver {
         if (DEBUG) {
             Log.d(TAG, "Content updated.");
         }
+        mPendingCount++;
+        if (mDeliveryScheduled) {
+            return;
+        }
+
+        final long delay = mDeliverNextImmediately ? 0
+                : mLastDeliveryTime + mMinReloadIntervalMillis - SystemClock.uptimeMillis();
+        if (mLastDeliveryTime == -1 || delay <= 0) {
+            deliverChange();
+        } else {
+            mDeliveryScheduled = true;
+            mHandler.postDelayed(mDeliverCallback, delay);
+        }
+    }
+
+    /**
+     * Makes the next change notification run the callback right away, regardless of the minimum
+     * reload interval, and runs any held back callback now. Used when the user explicitly asked
+     * for the contents to be refreshed, so they expect them to be updated without delay. Must be
+     * called on the main thread.
+     */
+    public void deliverNextChangeImmediately() {
+        if (mDeliveryScheduled) {
+            mHandler.removeCallbacks(mDeliverCallback);
+            deliverChange();
+        }
+        mDeliverNextImmediately = true;
+    }
+
+    /**
+     * Drops the callback held back for the minimum reload interval, if any. Called once the
+     * contents aren't loaded anymore, so that the callback doesn't reload whatever is shown by
+     * then. Must be called on the main thread.
+     */
+    public void cancel() {
+        mHandler.removeCallbacks(mDeliverCallback);
+        mPendingCount = 0;
+        mDeliveryScheduled = false;
+        mDeliverNextImmediately = false;
+    }
+
+    private void deliverChange() {
+        if (DEBUG) {
+            Log.d(TAG, "Delivering content change, merged " + mPendingCount + " notifications.");
+        }
+        mLastDeliveryTime = SystemClock.uptimeMillis();
+        mPendingCount = 0;
+        mDeliveryScheduled = false;
+        mDeliverNextImmediately = false;
         mLock.runWhenUnlocked(mContentChangedCallback);
     }
 }
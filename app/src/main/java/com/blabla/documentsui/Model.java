@@ -67,9 +67,12 @@ public class Model {
 
     private boolean mIsLoading;
     private List<EventListener<Update>> mUpdateListeners = new ArrayList<>();
-    private @Nullable Cursor mCursor;
+    private @Nullable DocumentTable mTable;
     private int mCursorCount;
     private String mIds[] = new String[0];
+    // The number of documents of a paged listing before and after the loaded ones.
+    private int mUnloadedBefore;
+    private int mUnloadedAfter;
 
     public Model(Features features) {
         mFeatures = features;
@@ -84,22 +87,25 @@ public class Model {
     }
 
     private void notifyUpdateListeners() {
+        notifyUpdateListeners(Update.UPDATE);
+    }
+
+    private void notifyUpdateListeners(Update update) {
         for (EventListener<Update> handler: mUpdateListeners) {
-            handler.accept(Update.UPDATE);
+            handler.accept(update);
         }
     }
 
     private void notifyUpdateListeners(Exception e) {
-        Update error = new Update(e, mFeatures.isRemoteActionsEnabled());
-        for (EventListener<Update> handler: mUpdateListeners) {
-            handler.accept(error);
-        }
+        notifyUpdateListeners(new Update(e, mFeatures.isRemoteActionsEnabled()));
     }
 
     public void reset() {
-        mCursor = null;
+        mTable = null;
         mCursorCount = 0;
         mIds = new String[0];
+        mUnloadedBefore = 0;
+        mUnloadedAfter = 0;
         mPositions.clear();
         info = null;
         error = null;
@@ -123,12 +129,22 @@ public class Model {
             return;
         }
 
-        mCursor = result.getCursor();
-        mCursorCount = mCursor.getCount();
         doc = result.doc;
 
-        if (result.getModelIds() != null && result.getFileNames() != null) {
+        // The delta of the result only describes this update if it was loaded after the
+        // documents this model holds now.
+        final DirectoryDelta delta = result.getDelta();
+        final Update update = (delta != null && delta.isBasedOn(mIds))
+                ? new Update(delta)
+                : Update.UPDATE;
+
+        if (result.getTable() != null
+                && result.getModelIds() != null && result.getFileNames() != null) {
+            mTable = result.getTable();
+            mCursorCount = mTable.getCount();
             mIds = result.getModelIds();
+            mUnloadedBefore = result.getUnloadedBefore();
+            mUnloadedAfter = result.getUnloadedAfter();
             mFileNames.clear();
             mFileNames.addAll(result.getFileNames());
 
@@ -137,16 +153,28 @@ public class Model {
             for (int i = 0; i < mCursorCount; ++i) {
                 mPositions.put(mIds[i], i);
             }
+        } else {
+            // The result couldn't be read, so drop everything that refers to the old snapshot.
+            mTable = null;
+            mCursorCount = 0;
+            mIds = new String[0];
+            mUnloadedBefore = 0;
+            mUnloadedAfter = 0;
+            mPositions.clear();
+            mFileNames.clear();
         }
 
-        final Bundle extras = mCursor.getExtras();
+        final Bundle extras = (mTable != null) ? mTable.getExtras() : result.getCursor().getExtras();
         if (extras != null) {
             info = extras.getString(DocumentsContract.EXTRA_INFO);
             error = extras.getString(DocumentsContract.EXTRA_ERROR);
             mIsLoading = extras.getBoolean(DocumentsContract.EXTRA_LOADING, false);
         }
 
-        notifyUpdateListeners();
+        if (DEBUG && update.getDelta() != null) {
+            Log.d(TAG, "Model updated with " + update.getDelta());
+        }
+        notifyUpdateListeners(update);
     }
 
     @VisibleForTesting
@@ -154,10 +182,50 @@ public class Model {
         return mCursorCount;
     }
 
+    /**
+     * Returns whether only some pages of the directory are loaded. The documents of the other
+     * pages are counted by {@link #getUnloadedBefore()} and {@link #getUnloadedAfter()}, but
+     * aren't part of the model.
+     */
+    public boolean isPaged() {
+        return mUnloadedBefore > 0 || mUnloadedAfter > 0;
+    }
+
+    /** Returns the number of documents of a paged directory before the loaded ones. */
+    public int getUnloadedBefore() {
+        return mUnloadedBefore;
+    }
+
+    /** Returns the number of documents of a paged directory after the loaded ones. */
+    public int getUnloadedAfter() {
+        return mUnloadedAfter;
+    }
+
+    /**
+     * Returns whether a loaded document has the given display name. Documents of pages that
+     * aren't loaded are not checked.
+     */
     public boolean hasFileWithName(String name) {
         return mFileNames.contains(name);
     }
 
+    /**
+     * @return The row of the given document in {@link #getTable()}, or -1 if the model doesn't
+     *         contain it. Rows are in the same order as {@link #getModelIds()}.
+     */
+    public int getItemIndex(String modelId) {
+        Integer pos = mPositions.get(modelId);
+        return (pos != null) ? pos : -1;
+    }
+
+    /**
+     * @return The snapshot of the loaded documents. Use {@link #getItemIndex(String)} to find the
+     *         row of a document.
+     */
+    public @Nullable DocumentTable getTable() {
+        return mTable;
+    }
+
     public @Nullable Cursor getItem(String modelId) {
         Integer pos = mPositions.get(modelId);
         if (pos == null) {
@@ -167,7 +235,7 @@ public class Model {
             return null;
         }
 
-        if (!mCursor.moveToPosition(pos)) {
+        if (!mTable.moveToPosition(pos)) {
             if (DEBUG) {
                 Log.d(TAG,
                     "Unabled to move cursor to position " + pos + " for modelId: " + modelId);
@@ -175,7 +243,7 @@ public class Model {
             return null;
         }
 
-        return mCursor;
+        return mTable;
     }
 
     public boolean isLoading() {
@@ -236,13 +304,16 @@ public class Model {
     }
 
     public Uri getItemUri(String modelId) {
-        final Cursor cursor = getItem(modelId);
-        return DocumentInfo.getUri(cursor);
+        final int row = getItemIndex(modelId);
+        return (row == -1)
+                ? DocumentInfo.getUri(null)
+                : DocumentsContract.buildDocumentUri(
+                        mTable.getAuthority(row), mTable.getDocumentId(row));
     }
 
     public UserId getItemUserId(String modelId) {
-        final Cursor cursor = getItem(modelId);
-        return DocumentInfo.getUserId(cursor);
+        final int row = getItemIndex(modelId);
+        return (row == -1) ? DocumentInfo.getUserId(null) : mTable.getUserId(row);
     }
 
     /**
@@ -269,11 +340,17 @@ public class Model {
         private final @UpdateType int mUpdateType;
         private final @Nullable Exception mException;
         private final boolean mRemoteActionEnabled;
+        private final @Nullable DirectoryDelta mDelta;
 
         private Update() {
+            this((DirectoryDelta) null);
+        }
+
+        public Update(@Nullable DirectoryDelta delta) {
             mUpdateType = TYPE_UPDATE;
             mException = null;
             mRemoteActionEnabled = false;
+            mDelta = delta;
         }
 
         public Update(Exception exception, boolean remoteActionsEnabled) {
@@ -281,6 +358,7 @@ public class Model {
             mUpdateType = TYPE_UPDATE_EXCEPTION;
             mException = exception;
             mRemoteActionEnabled = remoteActionsEnabled;
+            mDelta = null;
         }
 
         public boolean isUpdate() {
@@ -306,5 +384,14 @@ public class Model {
         public @Nullable Exception getException() {
             return mException;
         }
+
+        /**
+         * Returns the documents that were inserted, removed or changed by this update, relative
+         * to the documents of the previous update. Null if they aren't known, in which case any
+         * document may have changed.
+         */
+        public @Nullable DirectoryDelta getDelta() {
+            return mDelta;
+        }
     }
 }
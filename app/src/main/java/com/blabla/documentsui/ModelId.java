@@ -2,11 +2,17 @@ package com.blabla.documentsui;
 
 import android.database.Cursor;
 import android.provider.DocumentsContract;
+import android.util.SparseArray;
+
+import androidx.annotation.Nullable;
 
 import com.blabla.documentsui.base.UserId;
 import com.blabla.documentsui.roots.RootCursorWrapper;
 import com.blabla.documentsui.base.DocumentInfo;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public class ModelId {
 
     public static final String build(Cursor cursor) {
@@ -25,4 +31,55 @@ public class ModelId {
         }
         return userId + "|" + authority + "|" + docId;
     }
+
+    /**
+     * Builds the model IDs of many documents, typically all rows of a listing. IDs are the same
+     * as the ones of {@link #build(UserId, String, String)}, but the "user|authority|" prefix is
+     * only built once per distinct user and authority, so each ID costs a single concatenation
+     * rather than a {@link StringBuilder} plus a {@link UserId} per row. Not thread safe.
+     */
+    public static final class Builder {
+        // Prefixes by user identifier, then by authority.
+        private final SparseArray<Map<String, String>> mPrefixes = new SparseArray<>();
+
+        // The most recently used prefix. Listings rarely span more than one user and authority.
+        private int mLastUserId;
+        private @Nullable String mLastAuthority;
+        private @Nullable String mLastPrefix;
+
+        public @Nullable String build(int userIdIdentifier, String authority, String docId) {
+            if (authority == null || authority.isEmpty() || docId == null || docId.isEmpty()) {
+                return null;
+            }
+            final String prefix = getPrefix(userIdIdentifier, authority);
+            return (prefix != null) ? prefix.concat(docId) : null;
+        }
+
+        private @Nullable String getPrefix(int userIdIdentifier, String authority) {
+            if (mLastPrefix != null && mLastUserId == userIdIdentifier
+                    && authority.equals(mLastAuthority)) {
+                return mLastPrefix;
+            }
+
+            Map<String, String> prefixes = mPrefixes.get(userIdIdentifier);
+            if (prefixes == null) {
+                prefixes = new HashMap<>();
+                mPrefixes.put(userIdIdentifier, prefixes);
+            }
+            String prefix = prefixes.get(authority);
+            if (prefix == null) {
+                final UserId userId = UserId.of(userIdIdentifier);
+                if (userId == null) {
+                    return null;
+                }
+                prefix = userId + "|" + authority + "|";
+                prefixes.put(authority, prefix);
+            }
+
+            mLastUserId = userIdIdentifier;
+            mLastAuthority = authority;
+            mLastPrefix = prefix;
+            return prefix;
+        }
+    }
 }
@@ -17,32 +17,36 @@
 package com.blabla.documentsui;
 
 import static com.blabla.documentsui.base.SharedMinimal.DEBUG;
+import static com.blabla.documentsui.base.SharedMinimal.VERBOSE;
 
 import android.app.ActivityManager;
 import android.content.ContentProviderClient;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.CursorWrapper;
-import android.database.MatrixCursor;
-import android.database.MergeCursor;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.FileUtils;
+import android.os.SystemClock;
 import android.provider.DocumentsContract;
 import android.provider.DocumentsContract.Document;
 import android.util.Log;
 
 import androidx.annotation.GuardedBy;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.loader.content.AsyncTaskLoader;
 
 import com.blabla.documentsui.base.DocumentInfo;
 import com.blabla.documentsui.base.FilteringCursorWrapper;
+import com.blabla.documentsui.base.FilteringCursorWrapper.FilterPlan;
 import com.blabla.documentsui.base.Lookup;
 import com.blabla.documentsui.base.RootInfo;
 import com.blabla.documentsui.base.State;
 import com.blabla.documentsui.roots.ProvidersAccess;
 import com.blabla.documentsui.roots.RootCursorWrapper;
+import com.blabla.documentsui.sorting.SortKeyCache;
+import com.blabla.documentsui.sorting.SortedRunMerger;
 import com.google.common.util.concurrent.AbstractFuture;
 
 import java.io.Closeable;
@@ -74,9 +78,13 @@ public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<Directory
     private static final int MAX_OUTSTANDING_TASK_SVELTE = 2;
 
     /**
-     * Time to wait for first pass to complete before returning partial results.
+     * Longest time to wait for first pass to complete before returning partial results. How long
+     * is actually waited depends on how fast the authorities answered before, see
+     * {@link QueryLatencyStats#getFirstPassWaitMillis}. Expected latencies are bucket bounds of
+     * the histogram, so this is one as well. A cap between two bounds would only wait for the
+     * authorities up to the lower one.
      */
-    private static final int MAX_FIRST_PASS_WAIT_MILLIS = 500;
+    static final long MAX_FIRST_PASS_WAIT_MILLIS = 1024;
 
     protected final State mState;
 
@@ -84,6 +92,10 @@ public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<Directory
     private final ProvidersAccess mProviders;
     private final Lookup<String, Executor> mExecutors;
     private final Lookup<String, String> mFileTypeMap;
+    private final SortKeyCache mSortKeys = new SortKeyCache();
+    // The rows of each root, sorted on their own. Guarded by mTasks.
+    private final SortedRunMerger mRuns;
+    private final QueryLatencyStats mLatencyStats;
     private LockingContentObserver mObserver;
 
     @GuardedBy("mTasks")
@@ -94,6 +106,11 @@ public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<Directory
     private volatile boolean mFirstPassDone;
 
     private DirectoryResult mResult;
+    // The result to re-sort on the next load instead of collecting the tasks again. Guarded by
+    // this.
+    private @Nullable DirectoryResult mResortSource;
+    // Whether the tasks are being collected on the loader thread. Guarded by this.
+    private boolean mCollecting;
 
     /*
      * Create the loader to query roots from {@link android.provider.DocumentsProvider}.
@@ -112,6 +129,8 @@ public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<Directory
         mState = state;
         mExecutors = executors;
         mFileTypeMap = fileTypeMap;
+        mRuns = new SortedRunMerger(state.sortModel, fileTypeMap);
+        mLatencyStats = DocumentsApplication.getQueryLatencyStats(context);
 
         // Keep clients around on high-RAM devices, since we'd be spinning them
         // up moments later to fetch thumbnails anyway.
@@ -121,8 +140,56 @@ public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<Directory
                 am.isLowRamDevice() ? MAX_OUTSTANDING_TASK_SVELTE : MAX_OUTSTANDING_TASK);
     }
 
+    /**
+     * Re-sorts the delivered result with the current sort order on a background thread, rather
+     * than creating a new loader that queries every root again. Must be called from UI thread.
+     *
+     * @return false if there is no result that can be re-sorted, or the tasks are being
+     *         collected. The caller should reload instead.
+     */
+    public boolean resort() {
+        synchronized (this) {
+            if (!isStarted() || mCollecting
+                    || mResult == null || !mResult.isValid()) {
+                return false;
+            }
+            mResortSource = mResult;
+        }
+        forceLoad();
+        return true;
+    }
+
+    @Override
+    public void onContentChanged() {
+        // Content changes need the task results to be collected again.
+        synchronized (this) {
+            mResortSource = null;
+        }
+        final DirectoryResult result = mResult;
+        if (result != null) {
+            result.invalidate();
+        }
+        super.onContentChanged();
+    }
+
     @Override
     public DirectoryResult loadInBackground() {
+        final DirectoryResult resortSource;
+        synchronized (this) {
+            resortSource = mResortSource;
+            mResortSource = null;
+        }
+        if (resortSource != null) {
+            final DirectoryResult resorted =
+                    resortSource.resort(mState.sortModel, mFileTypeMap, mSortKeys);
+            if (resorted != null) {
+                return resorted;
+            }
+        }
+
+        synchronized (this) {
+            mCollecting = true;
+        }
         try {
             synchronized (mTasks) {
                 return loadInBackgroundLocked();
@@ -130,6 +197,10 @@ public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<Directory
         } catch (InterruptedException e) {
             Log.w(TAG, "loadInBackground is interrupted: ", e);
             return null;
+        } finally {
+            synchronized (this) {
+                mCollecting = false;
+            }
         }
     }
 
@@ -137,6 +208,26 @@ public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<Directory
         mObserver = observer;
     }
 
+    /**
+     * Called when the user asked to refresh the contents. The change notification of the
+     * refreshed contents is delivered without waiting for the minimum reload interval.
+     */
+    public void onRefreshRequested() {
+        if (mObserver != null) {
+            mObserver.deliverNextChangeImmediately();
+        }
+    }
+
+    /**
+     * Drops the change notification held back by the observer, if any, see
+     * {@link LockingContentObserver#cancel}. Must be called from UI thread.
+     */
+    public void cancelPendingChange() {
+        if (mObserver != null) {
+            mObserver.cancel();
+        }
+    }
+
     private DirectoryResult loadInBackgroundLocked() throws InterruptedException {
         if (mFirstPassLatch == null) {
             // First time through we kick off all the recent tasks, and wait
@@ -153,25 +244,48 @@ public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<Directory
                 throw new InterruptedException("Loading is cancelled!");
             }
 
-            mFirstPassLatch = new CountDownLatch(mTasks.size());
+            // Only wait for the authorities that are expected to answer in time, and that
+            // have no snapshot to show meanwhile.
+            final List<String> waitedFor = new ArrayList<>(mTasks.size());
+            for (QueryTask task : mTasks.values()) {
+                task.mWaitedFor = getSnapshot(task.authority) == null
+                        && mLatencyStats.isWaitedFor(task.authority, MAX_FIRST_PASS_WAIT_MILLIS);
+                if (task.mWaitedFor) {
+                    waitedFor.add(task.authority);
+                }
+            }
+            final long waitMillis = mLatencyStats.getFirstPassWaitMillis(
+                    waitedFor, MAX_FIRST_PASS_WAIT_MILLIS);
+            if (DEBUG) {
+                Log.d(TAG, "Waiting " + waitMillis + "ms for " + waitedFor.size() + " of "
+                        + mTasks.size() + " authorities.");
+            }
+
+            mFirstPassLatch = new CountDownLatch(waitedFor.size());
             for (QueryTask task : mTasks.values()) {
                 mExecutors.lookup(task.authority).execute(task);
             }
 
             try {
-                mFirstPassLatch.await(MAX_FIRST_PASS_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+                mFirstPassLatch.await(waitMillis, TimeUnit.MILLISECONDS);
                 mFirstPassDone = true;
             } catch (InterruptedException e) {
                 throw new RuntimeException(e);
             }
         }
 
-        final long rejectBefore = getRejectBeforeTime();
+        final FilterPlan filterPlan = new FilterPlan()
+                .filterHiddenFiles(mState.showHiddenFiles)
+                .filterMimes(mState.acceptMimes, getRejectMimes())
+                .filterLastModified(getRejectBeforeTime());
 
         // Collect all finished tasks
         boolean allDone = true;
         int totalQuerySize = 0;
-        List<Cursor> cursors = new ArrayList<>(mTasks.size());
+        final List<Cursor> sources = new ArrayList<>(mTasks.size());
+        final List<RootCursorWrapper> rootCursors = new ArrayList<>(mTasks.size());
+        // Cursors are kept across passes, so only count the window fills of this pass.
+        int windowFillCount = 0;
         for (QueryTask task : mTasks.values()) {
             if (isLoadInBackgroundCanceled()) {
                 // Loader is cancelled (e.g. about to be reset), preempt loading.
@@ -186,25 +300,42 @@ public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<Directory
                     }
 
                     totalQuerySize += taskCursors.length;
+                    // The unfiltered rows of the task, if they haven't been reported yet.
+                    final List<DocumentTable> loaded =
+                            task.mReported ? null : new ArrayList<>(taskCursors.length);
                     for (Cursor cursor : taskCursors) {
                         if (cursor == null) {
                             // It's possible given an authority, some roots fail to return a cursor
                             // after a query.
                             continue;
                         }
+                        if (cursor instanceof RootCursorWrapper) {
+                            rootCursors.add((RootCursorWrapper) cursor);
+                            windowFillCount += ((RootCursorWrapper) cursor).getWindowFillCount();
+                        }
 
-                        final FilteringCursorWrapper filteredCursor =
-                                new FilteringCursorWrapper(cursor) {
-                            @Override
-                            public void close() {
-                                // Ignored, since we manage cursor lifecycle internally
+                        // The rows of a root are read and sorted once, when its query is done.
+                        if (!mRuns.contains(cursor)) {
+                            final DocumentTable rows = DocumentTable.fromCursor(cursor);
+                            final DocumentTable table =
+                                    (rows != null) ? filterRows(rows, filterPlan) : null;
+                            if (table == null) {
+                                Log.e(TAG, "Failed to read documents for authority: "
+                                        + task.authority + ". Skip this root.");
+                                continue;
                             }
-                        };
-                        filteredCursor.filterHiddenFiles(mState.showHiddenFiles);
-                        filteredCursor.filterMimes(mState.acceptMimes, getRejectMimes());
-                        filteredCursor.filterLastModified(rejectBefore);
+                            mRuns.add(cursor, table);
+                            if (loaded != null) {
+                                loaded.add(rows);
+                            }
+                        }
+                        sources.add(cursor);
+                    }
 
-                        cursors.add(filteredCursor);
+                    if (loaded != null) {
+                        task.mReported = true;
+                        onAuthorityLoaded(task.authority,
+                                loaded.isEmpty() ? null : DocumentTable.concat(loaded));
                     }
 
                 } catch (InterruptedException e) {
@@ -218,44 +349,67 @@ public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<Directory
                 }
             } else {
                 allDone = false;
+
+                // Show what the authority had the last time until its query is done.
+                final DocumentTable snapshot = getSnapshot(task.authority);
+                if (snapshot != null) {
+                    if (!mRuns.contains(snapshot)) {
+                        final DocumentTable table = filterRows(snapshot, filterPlan);
+                        if (table == null) {
+                            continue;
+                        }
+                        mRuns.add(snapshot, table);
+                    }
+                    sources.add(snapshot);
+                }
             }
         }
 
         if (DEBUG) {
             Log.d(TAG,
-                    "Found " + cursors.size() + " of " + totalQuerySize + " queries done");
+                    "Found " + sources.size() + " of " + totalQuerySize + " queries done");
         }
 
         final DirectoryResult result = new DirectoryResult();
         result.doc = new DocumentInfo();
 
-        final Cursor merged;
-        if (cursors.size() > 0) {
-            merged = new MergeCursor(cursors.toArray(new Cursor[cursors.size()]));
-        } else {
-            // Return something when nobody is ready
-            merged = new MatrixCursor(new String[0]);
-        }
-
-        final Cursor sorted;
-        if (isDocumentsMovable()) {
-            sorted = mState.sortModel.sortCursor(merged, mFileTypeMap);
-        } else {
-            final Cursor notMovableMasked = new NotMovableMaskCursor(merged);
-            sorted = mState.sortModel.sortCursor(notMovableMasked, mFileTypeMap);
-        }
-
         // Tell the UI if this is an in-progress result. When loading is complete, another update is
         // sent with EXTRA_LOADING set to false.
         Bundle extras = new Bundle();
         extras.putBoolean(DocumentsContract.EXTRA_LOADING, !allDone);
-        sorted.setExtras(extras);
 
-        result.setCursor(sorted);
+        final DocumentTable merged = mRuns.merge(sources, extras);
+        result.setTable(merged);
+        if (VERBOSE) {
+            Log.v(TAG, "Merged " + merged.getCount() + " documents with "
+                    + (DirectoryLoader.getWindowFillCount(rootCursors) - windowFillCount)
+                    + " cursor window fills.");
+        }
 
         return result;
     }
 
+    /**
+     * Returns the rows of a root that pass {@code filterPlan}. The rows are read from a table
+     * rather than the cursor, so that the unfiltered rows can be reported with
+     * {@link #onAuthorityLoaded} without reading the cursor twice.
+     */
+    private @Nullable DocumentTable filterRows(DocumentTable rows, FilterPlan filterPlan) {
+        final FilteringCursorWrapper filteredCursor = new FilteringCursorWrapper(rows) {
+            @Override
+            public void close() {
+                // Ignored, the rows are shared
+            }
+        };
+        // Snapshots are shared with other loaders, and filtering moves the table.
+        synchronized (rows) {
+            filteredCursor.filter(filterPlan);
+            return DocumentTable.fromCursor(isDocumentsMovable()
+                    ? filteredCursor
+                    : new NotMovableMaskCursor(filteredCursor));
+        }
+    }
+
     /**
      * Returns a map of Authority -> rootInfos.
      */
@@ -294,6 +448,22 @@ public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<Directory
         return false;
     }
 
+    /**
+     * Returns the unfiltered documents of {@code authority} from an earlier load, to be shown
+     * until its query is done, or null. Authorities with a snapshot aren't waited for by the
+     * first pass. Called on the loader thread.
+     */
+    protected @Nullable DocumentTable getSnapshot(String authority) {
+        return null;
+    }
+
+    /**
+     * Called on the loader thread with the unfiltered documents of an authority once its query is
+     * done, or null if none of its roots could be read.
+     */
+    protected void onAuthorityLoaded(String authority, @Nullable DocumentTable documents) {
+    }
+
     protected abstract QueryTask getQueryTask(String authority, List<RootInfo> rootInfos);
 
     @Override
@@ -303,6 +473,7 @@ public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<Directory
             return;
         }
         DirectoryResult oldResult = mResult;
+        result.takeOwnership();
         mResult = result;
 
         if (isStarted() && !isAbandoned() && !isLoadInBackgroundCanceled()) {
@@ -316,11 +487,11 @@ public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<Directory
 
     @Override
     protected void onStartLoading() {
-        boolean isCursorStale = checkIfCursorStale(mResult);
-        if (mResult != null && !isCursorStale) {
+        final boolean isResultValid = mResult != null && mResult.isValid();
+        if (isResultValid) {
             deliverResult(mResult);
         }
-        if (takeContentChanged() || mResult == null || isCursorStale) {
+        if (takeContentChanged() || !isResultValid) {
             forceLoad();
         }
     }
@@ -338,11 +509,13 @@ public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<Directory
     @Override
     protected void onReset() {
         super.onReset();
+        cancelPendingChange();
 
         synchronized (mTasks) {
             for (QueryTask task : mTasks.values()) {
                 mExecutors.lookup(task.authority).execute(() -> FileUtils.closeQuietly(task));
             }
+            mRuns.clear();
         }
         FileUtils.closeQuietly(mResult);
         mResult = null;
@@ -376,6 +549,10 @@ public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<Directory
 
         private Cursor[] mCursors;
         private boolean mIsClosed = false;
+        // Whether the first pass waits for this task. Set before the task is executed.
+        private volatile boolean mWaitedFor;
+        // Whether onAuthorityLoaded was called for this task. Guarded by mTasks.
+        private boolean mReported;
 
         public QueryTask(String authority, List<RootInfo> rootInfos) {
             this.authority = authority;
@@ -414,6 +591,7 @@ public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<Directory
                 return;
             }
 
+            final long startTime = SystemClock.elapsedRealtime();
             final int rootInfoCount = rootInfos.size();
             final Cursor[] res = new Cursor[rootInfoCount];
             mCursors = new Cursor[rootInfoCount];
@@ -429,7 +607,7 @@ public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<Directory
                         final Bundle queryArgs = new Bundle();
                         mState.sortModel.addQuerySortArgs(queryArgs);
                         addQueryArgs(queryArgs);
-                        res[i] = client.query(uri, null, queryArgs, null);
+                        res[i] = DocumentTable.query(client, uri, queryArgs, null);
                         if (mObserver != null) {
                             res[i].registerContentObserver(mObserver);
                         }
@@ -443,9 +621,12 @@ public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<Directory
                 }
             }
 
+            mLatencyStats.record(authority, SystemClock.elapsedRealtime() - startTime);
             set(mCursors);
 
-            mFirstPassLatch.countDown();
+            if (mWaitedFor) {
+                mFirstPassLatch.countDown();
+            }
             if (mFirstPassDone) {
                 onContentChanged();
             }
@@ -467,22 +648,4 @@ public abstract class MultiRootDocumentsLoader extends AsyncTaskLoader<Directory
             mIsClosed = true;
         }
     }
-
-    private boolean checkIfCursorStale(DirectoryResult result) {
-        if (result == null || result.getCursor() == null || result.getCursor().isClosed()) {
-            return true;
-        }
-        Cursor cursor = result.getCursor();
-        try {
-            cursor.moveToPosition(-1);
-            for (int pos = 0; pos < cursor.getCount(); ++pos) {
-                if (!cursor.moveToNext()) {
-                    return true;
-                }
-            }
-        } catch (Exception e) {
-            return true;
-        }
-        return false;
-    }
 }
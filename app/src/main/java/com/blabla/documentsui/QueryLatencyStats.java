@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.blabla.documentsui;
+
+import android.content.SharedPreferences;
+import android.text.TextUtils;
+import android.util.Log;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps a histogram of how long the queries of each authority took, persisted across sessions.
+ * Used to decide how long to wait for providers before showing what has been loaded, see
+ * {@link #getFirstPassWaitMillis}.
+ *
+ * <p>Latencies are counted in buckets of doubling width. Once an authority has
+ * {@link #MAX_SAMPLES} samples, all its counts are halved, so older samples fade out and the
+ * histogram follows providers that got faster or slower.
+ */
+public class QueryLatencyStats {
+
+    private static final String TAG = "QueryLatencyStats";
+
+    public static final String PREF_NAME = "QueryLatencyStats";
+
+    // Upper bounds of the buckets, in milliseconds. The last bucket counts everything slower.
+    private static final long[] BUCKET_BOUNDS = {
+            16, 32, 64, 128, 256, 512, 1024, 2048, 4096, 8192
+    };
+    private static final int MAX_SAMPLES = 64;
+    // Samples needed before the histogram of an authority is trusted.
+    private static final int MIN_SAMPLES = 4;
+    // The share of queries of an authority that are waited for.
+    private static final float WAIT_PERCENTILE = 0.9f;
+    // The expected latency of authorities without enough samples.
+    private static final long DEFAULT_LATENCY_MILLIS = 500;
+
+    private final SharedPreferences mPrefs;
+
+    // Authority -> bucket counts, read from preferences on first use.
+    @GuardedBy("this")
+    private final Map<String, int[]> mHistograms = new HashMap<>();
+
+    public QueryLatencyStats(SharedPreferences prefs) {
+        mPrefs = prefs;
+    }
+
+    /** Records the time a query of {@code authority} took. Can be called from any thread. */
+    public void record(String authority, long latencyMillis) {
+        final String encoded;
+        synchronized (this) {
+            final int[] counts = getHistogram(authority);
+            counts[getBucket(latencyMillis)]++;
+            if (sum(counts) >= MAX_SAMPLES) {
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] /= 2;
+                }
+            }
+            encoded = encode(counts);
+        }
+        mPrefs.edit().putString(authority, encoded).apply();
+    }
+
+    /**
+     * Returns the latency that {@link #WAIT_PERCENTILE} of the queries of {@code authority}
+     * stayed within, or {@link #DEFAULT_LATENCY_MILLIS} if there aren't enough samples.
+     */
+    public synchronized long getExpectedLatencyMillis(String authority) {
+        final int[] counts = getHistogram(authority);
+        if (sum(counts) < MIN_SAMPLES) {
+            return DEFAULT_LATENCY_MILLIS;
+        }
+        return getPercentile(counts, WAIT_PERCENTILE);
+    }
+
+    /**
+     * Returns how long to wait for the first results of {@code authorities}: until the ones
+     * expected to answer within {@code maxWaitMillis} should have answered. Authorities that are
+     * known to be slower are not waited for.
+     */
+    public long getFirstPassWaitMillis(Collection<String> authorities, long maxWaitMillis) {
+        long wait = 0;
+        for (String authority : authorities) {
+            final long expected = getExpectedLatencyMillis(authority);
+            if (expected <= maxWaitMillis) {
+                wait = Math.max(wait, expected);
+            }
+        }
+        return wait;
+    }
+
+    /** Returns whether {@link #getFirstPassWaitMillis} waits for {@code authority}. */
+    public boolean isWaitedFor(String authority, long maxWaitMillis) {
+        return getExpectedLatencyMillis(authority) <= maxWaitMillis;
+    }
+
+    /** Prints the histograms of all authorities, for debugging. */
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "Query latencies (ms, counts per bucket up to "
+                + Arrays.toString(BUCKET_BOUNDS) + " and over):");
+        for (String authority : new TreeMap<>(mPrefs.getAll()).keySet()) {
+            final int[] counts = getHistogram(authority);
+            writer.println(prefix + "  " + authority
+                    + ": samples=" + sum(counts)
+                    + ", p50<=" + getPercentile(counts, 0.5f)
+                    + ", p90<=" + getPercentile(counts, 0.9f)
+                    + ", expected=" + getExpectedLatencyMillis(authority)
+                    + ", buckets=" + Arrays.toString(counts));
+        }
+    }
+
+    @GuardedBy("this")
+    private int[] getHistogram(String authority) {
+        int[] counts = mHistograms.get(authority);
+        if (counts == null) {
+            counts = decode(mPrefs.getString(authority, null));
+            mHistograms.put(authority, counts);
+        }
+        return counts;
+    }
+
+    private static long getPercentile(int[] counts, float percentile) {
+        final int threshold = (int) Math.ceil(sum(counts) * percentile);
+        int seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= threshold && seen > 0) {
+                return getUpperBound(i);
+            }
+        }
+        return 0;
+    }
+
+    private static int getBucket(long latencyMillis) {
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            if (latencyMillis <= BUCKET_BOUNDS[i]) {
+                return i;
+            }
+        }
+        return BUCKET_BOUNDS.length;
+    }
+
+    private static long getUpperBound(int bucket) {
+        return (bucket < BUCKET_BOUNDS.length)
+                ? BUCKET_BOUNDS[bucket]
+                : BUCKET_BOUNDS[BUCKET_BOUNDS.length - 1] * 2;
+    }
+
+    private static int sum(int[] counts) {
+        int sum = 0;
+        for (int count : counts) {
+            sum += count;
+        }
+        return sum;
+    }
+
+    private static String encode(int[] counts) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < counts.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            builder.append(counts[i]);
+        }
+        return builder.toString();
+    }
+
+    private static int[] decode(@Nullable String encoded) {
+        final int[] counts = new int[BUCKET_BOUNDS.length + 1];
+        if (TextUtils.isEmpty(encoded)) {
+            return counts;
+        }
+        final String[] values = encoded.split(",");
+        if (values.length != counts.length) {
+            // Written with different buckets, start over.
+            return counts;
+        }
+        try {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = Math.max(0, Integer.parseInt(values[i]));
+            }
+        } catch (NumberFormatException e) {
+            Log.w(TAG, "Dropping malformed latency histogram: " + encoded);
+            Arrays.fill(counts, 0);
+        }
+        return counts;
+    }
+}
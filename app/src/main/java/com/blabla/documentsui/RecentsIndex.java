@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.blabla.documentsui;
+
+import static com.blabla.documentsui.base.SharedMinimal.DEBUG;
+
+import android.content.Context;
+import android.os.AsyncTask;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.Nullable;
+
+import com.blabla.documentsui.base.FilteringCursorWrapper;
+import com.blabla.documentsui.base.UserId;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * An on-disk index of the recent documents of each authority, per user. {@link RecentsLoader}
+ * shows the documents of the index as soon as Recents is opened, and replaces those of each
+ * authority with the results of its query once they come in.
+ *
+ * <p>The index of a user is read on first use and written back in the background whenever the
+ * documents of an authority are updated. Documents older than
+ * {@link RecentsLoader#REJECT_OLDER_THAN} are dropped, and so are the documents of the
+ * authorities of a package when the package changes.
+ */
+public class RecentsIndex {
+
+    private static final String TAG = "RecentsIndex";
+
+    // Bumped whenever the format of DocumentTable#writeTo changes. Files of another version are
+    // discarded.
+    private static final int VERSION = 1;
+
+    private final Context mContext;
+    private final File mDir;
+    // Writes the index files one at a time, in the order they were changed.
+    private final Executor mWriteExecutor = AsyncTask.SERIAL_EXECUTOR;
+
+    // The documents of each authority, per user. Users are added when their file is read.
+    @GuardedBy("this")
+    private final Map<UserId, Map<String, DocumentTable>> mIndex = new HashMap<>();
+    // The users whose file is waiting to be written.
+    @GuardedBy("this")
+    private final Set<UserId> mPendingWrites = new HashSet<>();
+
+    public RecentsIndex(Context context, File dir) {
+        mContext = context;
+        mDir = dir;
+    }
+
+    /**
+     * Provides initialization of the index storage directory.
+     */
+    public static File prepareStorage(File cacheDir) {
+        final File dir = new File(cacheDir, "recents");
+        dir.mkdir();
+        return dir;
+    }
+
+    /**
+     * Returns the documents of {@code authority} the last time it was queried, or null. Must not
+     * be called from UI thread, the index of the user may have to be read.
+     */
+    public synchronized @Nullable DocumentTable get(UserId userId, String authority) {
+        return getDocumentsLocked(userId).get(authority);
+    }
+
+    /**
+     * Replaces the documents of {@code authority} with the results of its query. Must not be
+     * called from UI thread.
+     */
+    public synchronized void put(UserId userId, String authority, DocumentTable documents) {
+        final DocumentTable fresh = expire(documents);
+        final Map<String, DocumentTable> index = getDocumentsLocked(userId);
+        if (fresh == null || fresh.getCount() == 0) {
+            if (index.remove(authority) != null) {
+                scheduleWriteLocked(userId);
+            }
+            return;
+        }
+        index.put(authority, fresh);
+        scheduleWriteLocked(userId);
+    }
+
+    /**
+     * Drops the documents of {@code authorities}, e.g. because their provider changed or can no
+     * longer be queried. Can be called from any thread.
+     */
+    public void remove(UserId userId, Collection<String> authorities) {
+        if (authorities.isEmpty()) {
+            return;
+        }
+        mWriteExecutor.execute(() -> {
+            synchronized (this) {
+                final Map<String, DocumentTable> index = getDocumentsLocked(userId);
+                if (index.keySet().removeAll(authorities)) {
+                    scheduleWriteLocked(userId);
+                }
+            }
+        });
+    }
+
+    @GuardedBy("this")
+    private Map<String, DocumentTable> getDocumentsLocked(UserId userId) {
+        Map<String, DocumentTable> index = mIndex.get(userId);
+        if (index == null) {
+            final AtomicFile file = getFile(userId);
+            index = (file != null) ? read(file) : new HashMap<>();
+            mIndex.put(userId, index);
+        }
+        return index;
+    }
+
+    @GuardedBy("this")
+    private void scheduleWriteLocked(UserId userId) {
+        if (mPendingWrites.add(userId)) {
+            mWriteExecutor.execute(() -> write(userId));
+        }
+    }
+
+    // Returns the file of a user, or null if the user went away.
+    private @Nullable AtomicFile getFile(UserId userId) {
+        final long serialNumber = userId.getSerialNumber(mContext);
+        return (serialNumber >= 0)
+                ? new AtomicFile(new File(mDir, "index_" + serialNumber))
+                : null;
+    }
+
+    private void write(UserId userId) {
+        final Map<String, DocumentTable> index;
+        synchronized (this) {
+            mPendingWrites.remove(userId);
+            index = new HashMap<>(mIndex.get(userId));
+        }
+
+        final AtomicFile file = getFile(userId);
+        if (file == null) {
+            return;
+        }
+        FileOutputStream stream = null;
+        try {
+            stream = file.startWrite();
+            final DataOutputStream out =
+                    new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(VERSION);
+            out.writeInt(index.size());
+            for (Map.Entry<String, DocumentTable> entry : index.entrySet()) {
+                out.writeUTF(entry.getKey());
+                entry.getValue().writeTo(out);
+            }
+            out.flush();
+            file.finishWrite(stream);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write recents index.", e);
+            file.failWrite(stream);
+        }
+    }
+
+    private static Map<String, DocumentTable> read(AtomicFile file) {
+        final Map<String, DocumentTable> index = new HashMap<>();
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(file.openRead()))) {
+            if (in.readInt() != VERSION) {
+                file.delete();
+                return index;
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final String authority = in.readUTF();
+                final DocumentTable documents = expire(DocumentTable.readFrom(in));
+                if (documents != null && documents.getCount() > 0) {
+                    index.put(authority, documents);
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing indexed yet.
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to read recents index, discarding it.", e);
+            file.delete();
+            index.clear();
+        }
+        if (DEBUG) {
+            Log.d(TAG, "Read recents index of " + index.size() + " authorities.");
+        }
+        return index;
+    }
+
+    // Drops the documents Recents would reject for their age anyway.
+    private static @Nullable DocumentTable expire(DocumentTable documents) {
+        final FilteringCursorWrapper filtered = new FilteringCursorWrapper(documents);
+        filtered.filterLastModified(
+                System.currentTimeMillis() - RecentsLoader.REJECT_OLDER_THAN);
+        return (filtered.getCount() == documents.getCount())
+                ? documents
+                : DocumentTable.fromCursor(filtered);
+    }
+}
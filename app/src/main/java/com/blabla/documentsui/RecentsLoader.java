@@ -23,6 +23,8 @@ import android.provider.DocumentsContract;
 import android.provider.DocumentsContract.Document;
 import android.text.format.DateUtils;
 
+import androidx.annotation.Nullable;
+
 import com.blabla.documentsui.base.Lookup;
 import com.blabla.documentsui.base.RootInfo;
 import com.blabla.documentsui.base.State;
@@ -30,13 +32,14 @@ import com.blabla.documentsui.base.UserId;
 import com.blabla.documentsui.roots.ProvidersAccess;
 import com.blabla.documentsui.roots.RootCursorWrapper;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.Executor;
 
 public class RecentsLoader extends MultiRootDocumentsLoader {
 
     /** Ignore documents older than this age. */
-    private static final long REJECT_OLDER_THAN = 45 * DateUtils.DAY_IN_MILLIS;
+    static final long REJECT_OLDER_THAN = 45 * DateUtils.DAY_IN_MILLIS;
 
     /** MIME types that should always be excluded from recents. */
     private static final String[] REJECT_MIMES = new String[]{Document.MIME_TYPE_DIR};
@@ -45,11 +48,13 @@ public class RecentsLoader extends MultiRootDocumentsLoader {
     private static final int MAX_DOCS_FROM_ROOT = 64;
 
     private final UserId mUserId;
+    private final RecentsIndex mIndex;
 
     public RecentsLoader(Context context, ProvidersAccess providers, State state,
                          Lookup<String, Executor> executors, Lookup<String, String> fileTypeMap, UserId userId) {
         super(context, providers, state, executors, fileTypeMap);
         mUserId = userId;
+        mIndex = DocumentsApplication.getRecentsIndex(context);
     }
 
     @Override
@@ -82,6 +87,20 @@ public class RecentsLoader extends MultiRootDocumentsLoader {
         return !root.isLocalOnly() || !root.supportsRecents() || !mUserId.equals(root.userId);
     }
 
+    @Override
+    protected @Nullable DocumentTable getSnapshot(String authority) {
+        return mIndex.get(mUserId, authority);
+    }
+
+    @Override
+    protected void onAuthorityLoaded(String authority, @Nullable DocumentTable documents) {
+        if (documents != null) {
+            mIndex.put(mUserId, authority, documents);
+        } else {
+            mIndex.remove(mUserId, Collections.singletonList(authority));
+        }
+    }
+
     @Override
     protected QueryTask getQueryTask(String authority, List<RootInfo> rootInfos) {
         return new RecentsTask(authority, rootInfos);
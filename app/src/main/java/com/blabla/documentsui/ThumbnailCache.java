@@ -26,6 +26,7 @@ import android.util.LruCache;
 
 import androidx.annotation.IntDef;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 import androidx.core.util.Pools;
 
 import com.blabla.documentsui.base.Shared;
@@ -33,14 +34,15 @@ import com.blabla.documentsui.base.UserId;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
+import java.util.Arrays;
 import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Map;
 import java.util.Objects;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * An LRU cache that supports finding the thumbnail of the requested uri with a different size than
- * the requested one.
+ * the requested one. Thumbnails can also be kept on disk, see {@link DiskThumbnailCache}.
  */
 public class ThumbnailCache {
 
@@ -48,10 +50,17 @@ public class ThumbnailCache {
 
     /**
      * A 2-dimensional index into {@link #mCache} entries. {@link CacheKey} is the key to
-     * {@link #mCache}. TreeMap is used to search the closest size to a given size and a given uri.
+     * {@link #mCache}. The sizes of a uri are kept sorted in an immutable {@link SizeMap} to search
+     * the closest size to a given size, which is replaced whenever a size is added or removed.
+     * So the UI thread looks up sizes without locking, while loader threads put thumbnails and
+     * the cache drops them, and only writers of the same uri wait for each other.
      */
-    private final HashMap<SizeIndexKey, TreeMap<Point, CacheKey>> mSizeIndex;
+    private final ConcurrentHashMap<SizeIndexKey, SizeMap> mSizeIndex;
     private final Cache mCache;
+    private final @Nullable DiskThumbnailCache mDiskCache;
+    private final @Nullable BitmapPool mBitmapPool;
+    // Set while the cache is trimmed, bitmaps dropped meanwhile are not pooled.
+    private volatile boolean mTrimming;
 
     /**
      * Creates a thumbnail LRU cache.
@@ -59,8 +68,30 @@ public class ThumbnailCache {
      * @param maxCacheSizeInBytes the maximum size of thumbnails in bytes this cache can hold.
      */
     public ThumbnailCache(int maxCacheSizeInBytes) {
-        mSizeIndex = new HashMap<>();
+        this(maxCacheSizeInBytes, null, null);
+    }
+
+    /**
+     * Creates a thumbnail LRU cache backed by a cache on disk.
+     *
+     * @param maxCacheSizeInBytes the maximum size of thumbnails in bytes this cache can hold.
+     * @param diskCache where thumbnails are written to, and read from on a miss.
+     * @param bitmapPool where thumbnails dropped from this cache go to be reused.
+     */
+    public ThumbnailCache(int maxCacheSizeInBytes, @Nullable DiskThumbnailCache diskCache,
+            @Nullable BitmapPool bitmapPool) {
+        mSizeIndex = new ConcurrentHashMap<>();
         mCache = new Cache(maxCacheSizeInBytes);
+        mDiskCache = diskCache;
+        mBitmapPool = bitmapPool;
+    }
+
+    /**
+     * Returns the pool that the bitmaps dropped from this cache go to, or null. Thumbnails shown
+     * by views have to be retained in it, see {@link BitmapPool#retain}.
+     */
+    public @Nullable BitmapPool getBitmapPool() {
+        return mBitmapPool;
     }
 
     /**
@@ -71,9 +102,8 @@ public class ThumbnailCache {
      * @return the thumbnail result
      */
     public Result getThumbnail(Uri uri, UserId userId, Point size) {
-        TreeMap<Point, CacheKey> sizeMap;
-        sizeMap = mSizeIndex.get(new SizeIndexKey(uri, userId));
-        if (sizeMap == null || sizeMap.isEmpty()) {
+        final SizeMap sizeMap = mSizeIndex.get(new SizeIndexKey(uri, userId));
+        if (sizeMap == null) {
             // There is not any thumbnail for this uri.
             return Result.obtainMiss();
         }
@@ -88,7 +118,7 @@ public class ThumbnailCache {
         }
 
         // Look for thumbnail of bigger sizes.
-        Point otherSize = sizeMap.higherKey(size);
+        Point otherSize = sizeMap.higherSize(size);
         if (otherSize != null) {
             cacheKey = sizeMap.get(otherSize);
 
@@ -101,7 +131,7 @@ public class ThumbnailCache {
         }
 
         // Look for thumbnail of smaller sizes.
-        otherSize = sizeMap.lowerKey(size);
+        otherSize = sizeMap.lowerSize(size);
         if (otherSize != null) {
             cacheKey = sizeMap.get(otherSize);
 
@@ -118,7 +148,37 @@ public class ThumbnailCache {
     }
 
     /**
-     * Puts a thumbnail for the given uri and size in to the cache.
+     * Obtains a thumbnail written to disk earlier, and puts it in to the cache. The thumbnail is
+     * retained in the bitmap pool, so that it isn't reused if it's dropped from the cache before
+     * the caller is done with it. The caller has to release it, see {@link BitmapPool#release}.
+     * Must not be called from UI thread.
+     *
+     * @param uri the uri of the thumbnail in need
+     * @param size the desired size of the thumbnail
+     * @param lastModified last modified value of the document, older thumbnails aren't returned
+     * @return the thumbnail, or null if there is none on disk at least as large as {@code size}
+     */
+    public @Nullable Bitmap loadThumbnailFromDisk(Uri uri, UserId userId, Point size,
+            long lastModified) {
+        if (mDiskCache == null) {
+            return null;
+        }
+        final Bitmap thumbnail = mDiskCache.get(uri, userId, size, lastModified);
+        if (thumbnail != null) {
+            if (mBitmapPool != null) {
+                mBitmapPool.retain(thumbnail);
+            }
+            // Thumbnails on disk are shared by the sizes of a bucket, so it's indexed under its
+            // own size rather than the requested one. Sizes are square, see SizeComparator.
+            final int side = Math.max(thumbnail.getWidth(), thumbnail.getHeight());
+            putInMemory(uri, userId, new Point(side, side), thumbnail, lastModified);
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Puts a thumbnail for the given uri and size in to the cache. It is also written to disk in
+     * the background, if this cache is backed by one.
      * @param uri the uri of the thumbnail
      * @param size the size of the thumbnail
      * @param thumbnail the thumbnail to put in cache
@@ -126,61 +186,91 @@ public class ThumbnailCache {
      */
     public void putThumbnail(Uri uri, UserId userId, Point size, Bitmap thumbnail,
             long lastModified) {
-        CacheKey cacheKey = new CacheKey(uri, userId, size);
-
-        TreeMap<Point, CacheKey> sizeMap;
-        synchronized (mSizeIndex) {
-            sizeMap = mSizeIndex.get(new SizeIndexKey(uri, userId));
-            if (sizeMap == null) {
-                sizeMap = new TreeMap<>(SIZE_COMPARATOR);
-                mSizeIndex.put(new SizeIndexKey(uri, userId), sizeMap);
-            }
+        putInMemory(uri, userId, size, thumbnail, lastModified);
+        if (mDiskCache != null) {
+            mDiskCache.put(uri, userId, size, thumbnail, lastModified);
         }
+    }
+
+    private void putInMemory(Uri uri, UserId userId, Point size, Bitmap thumbnail,
+            long lastModified) {
+        CacheKey cacheKey = new CacheKey(uri, userId, size);
 
         Entry entry = new Entry(thumbnail, lastModified);
         mCache.put(cacheKey, entry);
-        synchronized (sizeMap) {
-            sizeMap.put(size, cacheKey);
-        }
+
+        // The thumbnail may have been dropped already meanwhile, see removeKey().
+        mSizeIndex.compute(new SizeIndexKey(uri, userId), (key, sizeMap) -> {
+            if (!isCached(cacheKey)) {
+                return sizeMap;
+            }
+            return (sizeMap != null) ? sizeMap.with(size, cacheKey) : SizeMap.of(size, cacheKey);
+        });
     }
 
     /**
-     * Removes all thumbnail cache associated to the given uri and user.
+     * Removes all thumbnail cache associated to the given uri and user, on disk as well.
      * @param uri the uri which thumbnail cache to remove
      */
     public void removeUri(Uri uri, UserId userId) {
-        TreeMap<Point, CacheKey> sizeMap;
-        synchronized (mSizeIndex) {
-            sizeMap = mSizeIndex.get(new SizeIndexKey(uri, userId));
-        }
-
+        final SizeMap sizeMap = mSizeIndex.get(new SizeIndexKey(uri, userId));
         if (sizeMap != null) {
-            // Create an array to hold all values to avoid ConcurrentModificationException because
-            // removeKey() will be called by LruCache but we can't modify the map while we're
-            // iterating over the collection of values.
-            for (CacheKey index : sizeMap.values().toArray(new CacheKey[0])) {
+            // The size map is immutable, so it isn't changed by removeKey() while we're iterating
+            // over it.
+            for (CacheKey index : sizeMap.mKeys) {
                 mCache.remove(index);
             }
         }
+        if (mDiskCache != null) {
+            mDiskCache.removeUri(uri, userId);
+        }
     }
 
     private void removeKey(CacheKey cacheKey) {
-        TreeMap<Point, CacheKey> sizeMap;
-        synchronized (mSizeIndex) {
-            sizeMap = mSizeIndex.get(new SizeIndexKey(cacheKey.uri, cacheKey.userId));
-        }
+        // Every change of a key in the cache is followed by an update of its index entry that
+        // checks whether the key is cached. These updates are serialized per uri, so whichever
+        // comes last sees the cache as it was left, and a thumbnail put again while an older
+        // one is dropped stays indexed. Drops the uri from the index along with its last size.
+        mSizeIndex.computeIfPresent(new SizeIndexKey(cacheKey.uri, cacheKey.userId),
+                (key, sizeMap) -> isCached(cacheKey) ? sizeMap : sizeMap.without(cacheKey));
+    }
+
+    private boolean isCached(CacheKey cacheKey) {
+        return mCache.get(cacheKey) != null;
+    }
 
-        assert (sizeMap != null);
-        synchronized (sizeMap) {
-            sizeMap.remove(cacheKey.point);
+    /**
+     * Returns whether the size index holds exactly the keys of the cached thumbnails. Only
+     * meaningful while nothing else uses the cache.
+     */
+    @VisibleForTesting
+    boolean isSizeIndexConsistent() {
+        final Map<CacheKey, Entry> cached = mCache.snapshot();
+        int indexed = 0;
+        for (SizeMap sizeMap : mSizeIndex.values()) {
+            for (CacheKey cacheKey : sizeMap.mKeys) {
+                if (!cached.containsKey(cacheKey)) {
+                    return false;
+                }
+                indexed++;
+            }
         }
+        return indexed == cached.size();
     }
 
     public void onTrimMemory(int level) {
-        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
-            mCache.evictAll();
-        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
-            mCache.trimToSize(mCache.size() / 2);
+        mTrimming = true;
+        try {
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+                mCache.evictAll();
+            } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+                mCache.trimToSize(mCache.size() / 2);
+            }
+        } finally {
+            mTrimming = false;
+        }
+        if (mBitmapPool != null && level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            mBitmapPool.clear();
         }
     }
 
@@ -312,6 +402,10 @@ public class ThumbnailCache {
             if (newValue == null) {
                 removeKey(key);
             }
+            if (mBitmapPool != null && !mTrimming
+                    && (newValue == null || newValue.mThumbnail != oldValue.mThumbnail)) {
+                mBitmapPool.offer(oldValue.mThumbnail);
+            }
         }
     }
 
@@ -323,6 +417,84 @@ public class ThumbnailCache {
         }
     }
 
+    /**
+     * The cache keys of the thumbnails of a uri, sorted by size with {@link #SIZE_COMPARATOR}.
+     * Never changed once created, so it can be read from any thread.
+     */
+    private static final class SizeMap {
+        private final Point[] mSizes;
+        private final CacheKey[] mKeys;
+
+        private SizeMap(Point[] sizes, CacheKey[] keys) {
+            mSizes = sizes;
+            mKeys = keys;
+        }
+
+        static SizeMap of(Point size, CacheKey cacheKey) {
+            return new SizeMap(new Point[] { size }, new CacheKey[] { cacheKey });
+        }
+
+        @Nullable CacheKey get(Point size) {
+            final int index = Arrays.binarySearch(mSizes, size, SIZE_COMPARATOR);
+            return (index >= 0) ? mKeys[index] : null;
+        }
+
+        @Nullable Point higherSize(Point size) {
+            final int index = Arrays.binarySearch(mSizes, size, SIZE_COMPARATOR);
+            final int higher = (index >= 0) ? index + 1 : -(index + 1);
+            return (higher < mSizes.length) ? mSizes[higher] : null;
+        }
+
+        @Nullable Point lowerSize(Point size) {
+            final int index = Arrays.binarySearch(mSizes, size, SIZE_COMPARATOR);
+            final int lower = (index >= 0) ? index - 1 : -(index + 1) - 1;
+            return (lower >= 0) ? mSizes[lower] : null;
+        }
+
+        /** Returns a copy that maps {@code size} to {@code cacheKey}. */
+        SizeMap with(Point size, CacheKey cacheKey) {
+            final int index = Arrays.binarySearch(mSizes, size, SIZE_COMPARATOR);
+            if (index >= 0) {
+                final CacheKey[] keys = mKeys.clone();
+                keys[index] = cacheKey;
+                return new SizeMap(mSizes, keys);
+            }
+
+            final int insertAt = -(index + 1);
+            final Point[] sizes = new Point[mSizes.length + 1];
+            final CacheKey[] keys = new CacheKey[mKeys.length + 1];
+            System.arraycopy(mSizes, 0, sizes, 0, insertAt);
+            System.arraycopy(mKeys, 0, keys, 0, insertAt);
+            sizes[insertAt] = size;
+            keys[insertAt] = cacheKey;
+            System.arraycopy(mSizes, insertAt, sizes, insertAt + 1, mSizes.length - insertAt);
+            System.arraycopy(mKeys, insertAt, keys, insertAt + 1, mKeys.length - insertAt);
+            return new SizeMap(sizes, keys);
+        }
+
+        /**
+         * Returns a copy without {@code cacheKey}, or null if there are no sizes left. A size
+         * that was mapped to another key meanwhile, e.g. of a slightly different height, stays.
+         */
+        @Nullable SizeMap without(CacheKey cacheKey) {
+            final int index = Arrays.binarySearch(mSizes, cacheKey.point, SIZE_COMPARATOR);
+            if (index < 0 || !mKeys[index].equals(cacheKey)) {
+                return this;
+            }
+            if (mSizes.length == 1) {
+                return null;
+            }
+
+            final Point[] sizes = new Point[mSizes.length - 1];
+            final CacheKey[] keys = new CacheKey[mKeys.length - 1];
+            System.arraycopy(mSizes, 0, sizes, 0, index);
+            System.arraycopy(mKeys, 0, keys, 0, index);
+            System.arraycopy(mSizes, index + 1, sizes, index, sizes.length - index);
+            System.arraycopy(mKeys, index + 1, keys, index, keys.length - index);
+            return new SizeMap(sizes, keys);
+        }
+    }
+
     private static class SizeIndexKey {
         final Uri uri;
         final UserId userId;
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.blabla.documentsui;
+
+import android.os.AsyncTask;
+import android.os.Process;
+
+import androidx.annotation.GuardedBy;
+import androidx.annotation.IntDef;
+
+import java.io.PrintWriter;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Runs thumbnail loads on a pool of threads of its own, apart from the {@link ProviderExecutor}
+ * of each authority, so that thumbnails never hold up directory loads and several thumbnails of
+ * an authority are loaded at a time.
+ *
+ * <p>At most {@code maxThreads} loads run at a time, and at most {@code maxThreadsPerAuthority}
+ * of them for the same authority, so that one slow provider doesn't take all threads. Loads of
+ * documents on screen go first, latest first, as those are the documents the user scrolled to
+ * last. Prefetches only run when no such load is waiting, one at a time and at a lower thread
+ * priority.
+ */
+public class ThumbnailExecutor {
+
+    public static final int DEFAULT_MAX_THREADS =
+            Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    public static final int DEFAULT_MAX_THREADS_PER_AUTHORITY = 2;
+
+    @Retention(RetentionPolicy.SOURCE)
+    @IntDef({PRIORITY_VISIBLE, PRIORITY_PREFETCH})
+    public @interface Priority {}
+    /** The thumbnail of a document on screen. */
+    public static final int PRIORITY_VISIBLE = 0;
+    /**
+     * The thumbnail of a document ahead of being shown, see
+     * {@link com.blabla.documentsui.dirlist.IconHelper#prefetch}.
+     */
+    public static final int PRIORITY_PREFETCH = 1;
+
+    private static final int MAX_PREFETCH_THREADS = 1;
+    private static final int PREFETCH_THREAD_PRIORITY =
+            Process.THREAD_PRIORITY_BACKGROUND + Process.THREAD_PRIORITY_LESS_FAVORABLE;
+
+    private final int mMaxThreads;
+    private final int mMaxThreadsPerAuthority;
+
+    // Loads waiting to run by priority, oldest first.
+    @GuardedBy("this")
+    private final ArrayDeque<Job>[] mPending;
+    // The number of loads running for each authority.
+    @GuardedBy("this")
+    private final Map<String, Integer> mRunning = new HashMap<>();
+    @GuardedBy("this")
+    private int mRunningPrefetches;
+    @GuardedBy("this")
+    private int mThreadCount;
+    @GuardedBy("this")
+    private int mIdleThreadCount;
+
+    @SuppressWarnings("unchecked")
+    public ThumbnailExecutor(int maxThreads, int maxThreadsPerAuthority) {
+        mMaxThreads = maxThreads;
+        mMaxThreadsPerAuthority = maxThreadsPerAuthority;
+        mPending = new ArrayDeque[] { new ArrayDeque<Job>(), new ArrayDeque<Job>() };
+    }
+
+    /**
+     * Executes a thumbnail load of a document of {@code authority}. Loads that are cancelled
+     * before they run, e.g. by {@link ThumbnailLoader#preempt}, finish right away.
+     */
+    public <P> void execute(String authority, @Priority int priority, AsyncTask<P, ?, ?> task,
+            P... params) {
+        task.executeOnExecutor(command -> enqueue(new Job(authority, priority, command)), params);
+    }
+
+    private synchronized void enqueue(Job job) {
+        mPending[job.priority].addLast(job);
+        if (mIdleThreadCount == 0 && mThreadCount < mMaxThreads) {
+            mThreadCount++;
+            final Thread thread = new Thread(this::runJobs, "ThumbnailExecutor #" + mThreadCount);
+            thread.start();
+        }
+        notifyAll();
+    }
+
+    private void runJobs() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        while (true) {
+            final Job job;
+            synchronized (this) {
+                Job next;
+                while ((next = takeLocked()) == null) {
+                    mIdleThreadCount++;
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // That was weird; let's go look for more jobs.
+                    } finally {
+                        mIdleThreadCount--;
+                    }
+                }
+                job = next;
+            }
+
+            if (job.priority == PRIORITY_PREFETCH) {
+                Process.setThreadPriority(PREFETCH_THREAD_PRIORITY);
+            }
+            try {
+                job.command.run();
+            } finally {
+                if (job.priority == PRIORITY_PREFETCH) {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                }
+                synchronized (this) {
+                    finishLocked(job);
+                    // Jobs of the authority may be runnable now.
+                    notifyAll();
+                }
+            }
+        }
+    }
+
+    // Takes the latest job of the highest priority that may run now, or returns null.
+    @GuardedBy("this")
+    private Job takeLocked() {
+        for (int priority = PRIORITY_VISIBLE; priority <= PRIORITY_PREFETCH; priority++) {
+            if (priority == PRIORITY_PREFETCH && mRunningPrefetches >= MAX_PREFETCH_THREADS) {
+                break;
+            }
+            final Iterator<Job> it = mPending[priority].descendingIterator();
+            while (it.hasNext()) {
+                final Job job = it.next();
+                final Integer running = mRunning.get(job.authority);
+                if (running == null || running < mMaxThreadsPerAuthority) {
+                    it.remove();
+                    mRunning.put(job.authority, (running != null) ? running + 1 : 1);
+                    if (priority == PRIORITY_PREFETCH) {
+                        mRunningPrefetches++;
+                    }
+                    return job;
+                }
+            }
+        }
+        return null;
+    }
+
+    @GuardedBy("this")
+    private void finishLocked(Job job) {
+        final int running = mRunning.get(job.authority);
+        if (running > 1) {
+            mRunning.put(job.authority, running - 1);
+        } else {
+            mRunning.remove(job.authority);
+        }
+        if (job.priority == PRIORITY_PREFETCH) {
+            mRunningPrefetches--;
+        }
+    }
+
+    /** Prints the loads running and waiting, for debugging. */
+    public synchronized void dump(String prefix, PrintWriter writer) {
+        writer.println(prefix + "Thumbnail executor: " + mThreadCount + "/" + mMaxThreads
+                + " threads, running=" + mRunning
+                + ", pending=" + mPending[PRIORITY_VISIBLE].size()
+                + ", pending prefetches=" + mPending[PRIORITY_PREFETCH].size());
+    }
+
+    private static final class Job {
+        final String authority;
+        final @Priority int priority;
+        final Runnable command;
+
+        Job(String authority, @Priority int priority, Runnable command) {
+            this.authority = authority;
+            this.priority = priority;
+            this.command = command;
+        }
+    }
+}
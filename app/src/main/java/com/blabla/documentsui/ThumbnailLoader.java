@@ -33,6 +33,8 @@ import android.util.Log;
 import android.view.View;
 import android.widget.ImageView;
 
+import androidx.annotation.Nullable;
+
 import com.blabla.documentsui.base.UserId;
 
 import java.util.function.BiConsumer;
@@ -57,7 +59,8 @@ public final class ThumbnailLoader extends AsyncTask<Uri, Void, Bitmap> implemen
     };
     public static final BiConsumer<View, View> ANIM_NO_OP = (mime, thumb) -> {};
 
-    private final ImageView mIconThumb;
+    private final Context mContext;
+    private final @Nullable ImageView mIconThumb;
     private final Point mThumbSize;
     private final Uri mUri;
     private final UserId mUserId;
@@ -76,7 +79,27 @@ public final class ThumbnailLoader extends AsyncTask<Uri, Void, Bitmap> implemen
      */
     public ThumbnailLoader(Uri uri, UserId userId, ImageView iconThumb, Point thumbSize,
             long lastModified, Consumer<Bitmap> callback, boolean addToCache) {
+        this(iconThumb.getContext(), uri, userId, iconThumb, thumbSize, lastModified, callback,
+                addToCache);
+        iconThumb.setTag(this);
+    }
+
+    /**
+     * Creates a loader that only puts the thumbnail in the cache, e.g. ahead of the document being
+     * shown.
+     *
+     * @param callback - called with the thumbnail, or null if it couldn't be loaded.
+     */
+    public ThumbnailLoader(Context context, Uri uri, UserId userId, Point thumbSize,
+            long lastModified, Consumer<Bitmap> callback) {
+        this(context, uri, userId, /* iconThumb= */ null, thumbSize, lastModified, callback,
+                /* addToCache= */ true);
+    }
 
+    private ThumbnailLoader(Context context, Uri uri, UserId userId,
+            @Nullable ImageView iconThumb, Point thumbSize, long lastModified,
+            Consumer<Bitmap> callback, boolean addToCache) {
+        mContext = context;
         mUri = uri;
         mUserId = userId;
         mIconThumb = iconThumb;
@@ -85,7 +108,6 @@ public final class ThumbnailLoader extends AsyncTask<Uri, Void, Bitmap> implemen
         mCallback = callback;
         mAddToCache = addToCache;
         mSignal = new CancellationSignal();
-        mIconThumb.setTag(this);
 
         if (VERBOSE) Log.v(TAG, "Starting icon loader task for " + mUri);
     }
@@ -103,18 +125,31 @@ public final class ThumbnailLoader extends AsyncTask<Uri, Void, Bitmap> implemen
             return null;
         }
 
-        final Context context = mIconThumb.getContext();
+        final Context context = mContext;
         final ContentResolver resolver = mUserId.getContentResolver(context);
+        final ThumbnailCache cache = DocumentsApplication.getThumbnailCache(context);
 
         ContentProviderClient client = null;
         Bitmap result = null;
         try {
+            if (mAddToCache) {
+                // A thumbnail kept on disk saves the provider call and decode.
+                result = cache.loadThumbnailFromDisk(mUri, mUserId, mThumbSize, mLastModified);
+                if (result != null) {
+                    return result;
+                }
+            }
+
             client = DocumentsApplication.acquireUnstableProviderOrThrow(
                 resolver, mUri.getAuthority());
             result = DocumentsContract.getDocumentThumbnail(wrap(client),
                     mUri, mThumbSize, mSignal);
             if (result != null && mAddToCache) {
-                final ThumbnailCache cache = DocumentsApplication.getThumbnailCache(context);
+                // Keep the thumbnail out of the bitmap pool until it's handed over, it may be
+                // dropped from the cache before then.
+                if (cache.getBitmapPool() != null) {
+                    cache.getBitmapPool().retain(result);
+                }
                 cache.putThumbnail(mUri, mUserId, mThumbSize, result, mLastModified);
             }
         } catch (Exception e) {
@@ -131,9 +166,25 @@ public final class ThumbnailLoader extends AsyncTask<Uri, Void, Bitmap> implemen
     protected void onPostExecute(Bitmap result) {
         if (VERBOSE) Log.v(TAG, "Loader task for " + mUri + " completed");
 
-        if (mIconThumb.getTag() == this) {
+        if (mIconThumb == null) {
+            mCallback.accept(result);
+        } else if (mIconThumb.getTag() == this) {
             mIconThumb.setTag(null);
             mCallback.accept(result);
         }
+        releaseThumbnail(result);
+    }
+
+    @Override
+    protected void onCancelled(Bitmap result) {
+        releaseThumbnail(result);
+    }
+
+    // Undoes the retain of a thumbnail put in the cache by doInBackground.
+    private void releaseThumbnail(@Nullable Bitmap result) {
+        final BitmapPool pool = DocumentsApplication.getThumbnailCache(mContext).getBitmapPool();
+        if (result != null && mAddToCache && pool != null) {
+            pool.release(result);
+        }
     }
 }
\ No newline at end of file
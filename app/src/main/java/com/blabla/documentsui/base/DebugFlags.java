@@ -15,9 +15,6 @@
  */
 package com.blabla.documentsui.base;
 
-import android.content.ContentResolver;
-import android.os.Bundle;
-
 import androidx.annotation.Nullable;
 
 import com.blabla.documentsui.queries.CommandInterceptor;
@@ -55,16 +52,13 @@ public final class DebugFlags {
         sForcedPageLimit = limit;
     }
 
-    public static boolean addForcedPagingArgs(Bundle queryArgs) {
-        boolean flagsAdded = false;
-        if (sForcedPageOffset >= 0) {
-            queryArgs.putInt(ContentResolver.QUERY_ARG_OFFSET, sForcedPageOffset);
-            flagsAdded |= true;
-        }
-        if (sForcedPageLimit >= 0) {
-            queryArgs.putInt(ContentResolver.QUERY_ARG_LIMIT, sForcedPageLimit);
-            flagsAdded |= true;
-        }
-        return flagsAdded;
+    /** Returns the offset paged listings should start loading at, or -1 if not forced. */
+    public static int getForcedPageOffset() {
+        return sForcedPageOffset;
+    }
+
+    /** Returns the page size of paged listings, or -1 if not forced. */
+    public static int getForcedPageLimit() {
+        return sForcedPageLimit;
     }
 }
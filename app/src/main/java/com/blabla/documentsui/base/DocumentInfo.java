@@ -33,6 +33,7 @@ import android.util.Log;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 
+import com.blabla.documentsui.DocumentTable;
 import com.blabla.documentsui.DocumentsApplication;
 import com.blabla.documentsui.archives.ArchivesProvider;
 import com.blabla.documentsui.roots.RootCursorWrapper;
@@ -211,8 +212,9 @@ public class DocumentInfo implements Durable, Parcelable {
         try {
             client = DocumentsApplication.acquireUnstableProviderOrThrow(
                     resolver, uri.getAuthority());
-            cursor = client.query(uri, null, null, null, null);
-            if (!cursor.moveToFirst()) {
+            // Only the columns of DocumentTable are read, see updateFromCursor().
+            cursor = DocumentTable.query(client, uri, /* queryArgs= */ null, /* signal= */ null);
+            if (cursor == null || !cursor.moveToFirst()) {
                 throw new FileNotFoundException("Missing details for " + uri);
             }
             updateFromCursor(cursor, userId, uri.getAuthority());
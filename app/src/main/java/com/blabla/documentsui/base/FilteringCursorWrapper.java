@@ -23,6 +23,11 @@ import android.os.Bundle;
 import android.provider.DocumentsContract.Document;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Cursor wrapper that filters cursor results by given conditions.
  */
@@ -48,38 +53,47 @@ public class FilteringCursorWrapper extends AbstractCursor {
      * @param rejectMimes blocked list of mimes
      */
     public void filterMimes(String[] acceptMimes, String[] rejectMimes) {
-        filterByCondition((cursor) -> {
-            final String mimeType = DocumentInfo.getCursorString(cursor, Document.COLUMN_MIME_TYPE);
-            if (rejectMimes != null && MimeTypes.mimeMatches(rejectMimes, mimeType)) {
-                return false;
-            }
-            return MimeTypes.mimeMatches(acceptMimes, mimeType);
-        });
+        filter(new FilterPlan().filterMimes(acceptMimes, rejectMimes));
     }
 
     /** Filters cursor according to last modified time, and reject earlier than given timestamp. */
     public void filterLastModified(long rejectBeforeTimestamp) {
-        filterByCondition((cursor) -> {
-            final long lastModified = DocumentInfo.getCursorLong(cursor, Document.COLUMN_LAST_MODIFIED);
-            return lastModified >= rejectBeforeTimestamp;
-        });
+        filter(new FilterPlan().filterLastModified(rejectBeforeTimestamp));
     }
 
     /** Filter hidden files based on preference. */
     public void filterHiddenFiles(boolean showHiddenFiles) {
-        if (showHiddenFiles) {
+        filter(new FilterPlan().filterHiddenFiles(showHiddenFiles));
+    }
+
+    /**
+     * Applies every condition of {@code plan} in a single pass over the cursor. This is
+     * equivalent to, but cheaper than, calling the individual filter methods one after another.
+     */
+    public void filter(FilterPlan plan) {
+        if (plan.isEmpty()) {
             return;
         }
 
-        filterByCondition((cursor) -> {
-            // Judge by name and documentId separately because for some providers
-            // e.g. DownloadProvider, documentId may not contain file name.
-            final String name = DocumentInfo.getCursorString(cursor, Document.COLUMN_DISPLAY_NAME);
-            final String documentId = DocumentInfo.getCursorString(cursor, Document.COLUMN_DOCUMENT_ID);
-            boolean documentIdHidden = documentId != null && documentId.contains("/.");
-            boolean fileNameHidden = name != null && name.startsWith(".");
-            return !(documentIdHidden || fileNameHidden);
-        });
+        final int oldCount = mCount;
+        final int[] newPositions = new int[oldCount];
+        int newCount = 0;
+
+        plan.resolveColumns(mCursor);
+        for (int i = 0; i < oldCount; i++) {
+            final int position = mPositions[i];
+            if (mCursor.moveToPosition(position) && plan.accept(mCursor)) {
+                newPositions[newCount++] = position;
+            }
+        }
+
+        if (SharedMinimal.DEBUG && newCount != oldCount) {
+            Log.d(SharedMinimal.TAG, "Before filtering " + oldCount + ", after " + newCount);
+        }
+        mCount = newCount;
+        mPositions = newPositions;
+        // Positions changed underneath us, start over like a freshly created cursor.
+        moveToPosition(-1);
     }
 
     @Override
@@ -158,26 +172,126 @@ public class FilteringCursorWrapper extends AbstractCursor {
         mCursor.unregisterContentObserver(observer);
     }
 
-    private interface FilteringCondition {
-        boolean accept(Cursor cursor);
-    }
+    /**
+     * A set of filtering conditions that are evaluated together by {@link #filter(FilterPlan)}.
+     * Column indices are resolved once per cursor, and mime type decisions are remembered per
+     * distinct mime type, so each row costs a few array reads instead of a column lookup per
+     * condition.
+     */
+    public static final class FilterPlan {
+        private boolean mRejectHiddenFiles;
+        private final List<String[]> mAcceptMimes = new ArrayList<>();
+        private final List<String[]> mRejectMimes = new ArrayList<>();
+        private boolean mFilterLastModified;
+        private long mRejectBeforeTimestamp;
 
-    private void filterByCondition(FilteringCondition condition) {
-        final int oldCount = this.getCount();
-        int[] newPositions = new int[oldCount];
-        int newCount = 0;
+        private int mDocumentIdIndex = -1;
+        private int mDisplayNameIndex = -1;
+        private int mMimeTypeIndex = -1;
+        private int mLastModifiedIndex = -1;
+        private final Map<String, Boolean> mMimeDecisions = new HashMap<>();
+
+        /** Filter hidden files based on preference. */
+        public FilterPlan filterHiddenFiles(boolean showHiddenFiles) {
+            mRejectHiddenFiles |= !showHiddenFiles;
+            return this;
+        }
+
+        /**
+         * Filters according to mimes. If both lists are empty, all mimes will be rejected. When
+         * called more than once, a document has to pass every mime filter.
+         *
+         * @param acceptMimes allowed list of mimes
+         * @param rejectMimes blocked list of mimes
+         */
+        public FilterPlan filterMimes(String[] acceptMimes, String[] rejectMimes) {
+            mAcceptMimes.add(acceptMimes);
+            mRejectMimes.add(rejectMimes);
+            return this;
+        }
 
-        this.moveToPosition(-1);
-        while (this.moveToNext() && newCount < oldCount) {
-            if (condition.accept(mCursor)) {
-                newPositions[newCount++] = mPositions[this.getPosition()];
+        /** Filters according to last modified time, and reject earlier than given timestamp. */
+        public FilterPlan filterLastModified(long rejectBeforeTimestamp) {
+            mRejectBeforeTimestamp = mFilterLastModified
+                    ? Math.max(mRejectBeforeTimestamp, rejectBeforeTimestamp)
+                    : rejectBeforeTimestamp;
+            mFilterLastModified = true;
+            return this;
+        }
+
+        private boolean isEmpty() {
+            return !mRejectHiddenFiles && mAcceptMimes.isEmpty() && !mFilterLastModified;
+        }
+
+        private void resolveColumns(Cursor cursor) {
+            mDocumentIdIndex = cursor.getColumnIndex(Document.COLUMN_DOCUMENT_ID);
+            mDisplayNameIndex = cursor.getColumnIndex(Document.COLUMN_DISPLAY_NAME);
+            mMimeTypeIndex = cursor.getColumnIndex(Document.COLUMN_MIME_TYPE);
+            mLastModifiedIndex = cursor.getColumnIndex(Document.COLUMN_LAST_MODIFIED);
+        }
+
+        private boolean accept(Cursor cursor) {
+            // Cheapest checks first.
+            if (mFilterLastModified && getLong(cursor, mLastModifiedIndex) < mRejectBeforeTimestamp) {
+                return false;
+            }
+            if (!mAcceptMimes.isEmpty() && !acceptMime(getString(cursor, mMimeTypeIndex))) {
+                return false;
             }
+            if (mRejectHiddenFiles) {
+                // Judge by name and documentId separately because for some providers
+                // e.g. DownloadProvider, documentId may not contain file name.
+                final String name = getString(cursor, mDisplayNameIndex);
+                if (name != null && name.startsWith(".")) {
+                    return false;
+                }
+                final String documentId = getString(cursor, mDocumentIdIndex);
+                if (documentId != null && documentId.contains("/.")) {
+                    return false;
+                }
+            }
+            return true;
         }
 
-        if (SharedMinimal.DEBUG && newCount != this.getCount()) {
-            Log.d(SharedMinimal.TAG, "Before filtering " + oldCount + ", after " + newCount);
+        private boolean acceptMime(String mimeType) {
+            if (mimeType == null) {
+                return matchesMimes(null);
+            }
+            Boolean accepted = mMimeDecisions.get(mimeType);
+            if (accepted == null) {
+                accepted = matchesMimes(mimeType);
+                mMimeDecisions.put(mimeType, accepted);
+            }
+            return accepted;
+        }
+
+        private boolean matchesMimes(String mimeType) {
+            for (int i = 0; i < mAcceptMimes.size(); i++) {
+                final String[] rejectMimes = mRejectMimes.get(i);
+                if (rejectMimes != null && MimeTypes.mimeMatches(rejectMimes, mimeType)) {
+                    return false;
+                }
+                if (!MimeTypes.mimeMatches(mAcceptMimes.get(i), mimeType)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static String getString(Cursor cursor, int index) {
+            return (index != -1) ? cursor.getString(index) : null;
+        }
+
+        /** Same semantics as {@link DocumentInfo#getCursorLong}. */
+        private static long getLong(Cursor cursor, int index) {
+            if (index == -1) return -1;
+            final String value = cursor.getString(index);
+            if (value == null) return -1;
+            try {
+                return Long.parseLong(value);
+            } catch (NumberFormatException e) {
+                return -1;
+            }
         }
-        mCount = newCount;
-        mPositions = newPositions;
     }
 }
@@ -234,6 +234,14 @@ public final class Shared {
         return sCollator.compare(lhs, rhs);
     }
 
+    /**
+     * Returns a copy of the collator used by {@link #compareToIgnoreCaseNullable}, e.g. to build
+     * {@link java.text.CollationKey}s that order the same way. The caller owns the copy.
+     */
+    public static Collator newCollator() {
+        return (Collator) sCollator.clone();
+    }
+
     private static boolean isSystemApp(ApplicationInfo ai) {
         return (ai.flags & ApplicationInfo.FLAG_SYSTEM) != 0;
     }
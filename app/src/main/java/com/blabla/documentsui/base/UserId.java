@@ -155,6 +155,16 @@ public final class UserId {
         return userManager.isQuietModeEnabled(mUserHandle);
     }
 
+    /**
+     * Returns the serial number of this user, or -1 if the user doesn't exist. Unlike
+     * {@link #getIdentifier}, it tells users apart, e.g. to name files kept per user.
+     */
+    public long getSerialNumber(Context context) {
+        final UserManager userManager =
+                (UserManager) context.getSystemService(Context.USER_SERVICE);
+        return userManager.getSerialNumberForUser(mUserHandle);
+    }
+
     /**
      * Disables quiet mode for a managed profile. The caller should check {@code
      * MODIFY_QUIET_MODE} permission first.
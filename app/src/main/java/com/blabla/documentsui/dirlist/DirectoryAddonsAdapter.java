@@ -16,37 +16,64 @@
 
 package com.blabla.documentsui.dirlist;
 
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.ViewGroup;
 
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
 import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 import androidx.recyclerview.widget.RecyclerView.AdapterDataObserver;
 
+import com.blabla.documentsui.DirectoryDelta;
 import com.blabla.documentsui.Model;
 import com.blabla.documentsui.base.EventListener;
 import com.blabla.documentsui.base.State;
 
 import java.util.List;
+import java.util.concurrent.Executor;
 
 /**
  * Adapter wrapper that embellishes the directory list by inserting Holder views inbetween
  * items.
+ *
+ * <p>Model updates are diffed against the rows currently shown on a background thread, and only
+ * the rows that were inserted, removed or changed are published to RecyclerView. Until the diff
+ * is done, this adapter and its delegate keep presenting the previous {@link DirectoryItems}.
+ * Updates that only change documents in place, as told by their {@link DirectoryDelta}, are
+ * published right away without diffing.
  */
 final class DirectoryAddonsAdapter extends DocumentsAdapter {
 
     private static final String TAG = "SectioningDocumentsAdapterWrapper";
 
     private final Environment mEnv;
-    private final DocumentsAdapter mDelegate;
+    private final ModelBackedDocumentsAdapter mDelegate;
     private final EventListener<Model.Update> mModelUpdateListener;
-
-    private int mBreakPosition = -1;
+    private final Executor mDiffExecutor;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
     // TODO: There should be two header messages (or more here). Defaulting to showing only one for
     // now.
     private final Message mHeaderMessage;
     private final Message mInflateMessage;
 
-    DirectoryAddonsAdapter(Environment environment, DocumentsAdapter delegate) {
+    // The rows currently published to RecyclerView.
+    private DirectoryItems mItems = DirectoryItems.EMPTY;
+    // The rows of the latest model update. Differs from mItems while a diff is in progress.
+    private DirectoryItems mLatestItems = DirectoryItems.EMPTY;
+    // Incremented with each submitted update, so that outdated diffs are dropped.
+    private int mDiffGeneration;
+
+    DirectoryAddonsAdapter(Environment environment, ModelBackedDocumentsAdapter delegate) {
+        this(environment, delegate, AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    DirectoryAddonsAdapter(
+            Environment environment, ModelBackedDocumentsAdapter delegate, Executor diffExecutor) {
         mEnv = environment;
+        mDiffExecutor = diffExecutor;
         mDelegate = delegate;
         // TODO: We should not instantiate the messages here, but rather instantiate them
         // when we get an update event.
@@ -60,7 +87,6 @@ final class DirectoryAddonsAdapter extends DocumentsAdapter {
         mModelUpdateListener = this::onModelUpdate;
     }
 
-    @Override
     EventListener<Model.Update> getModelUpdateListener() {
         return mModelUpdateListener;
     }
@@ -106,6 +132,11 @@ final class DirectoryAddonsAdapter extends DocumentsAdapter {
                 holder = new InflateMessageDocumentHolder(mEnv.getContext(), parent);
                 mEnv.initDocumentHolder(holder);
                 break;
+            case ITEM_TYPE_PLACEHOLDER:
+                holder = new PlaceholderDocumentHolder(mEnv.getContext(), parent,
+                        mEnv.getDisplayState().derivedMode);
+                mEnv.initDocumentHolder(holder);
+                break;
             default:
                 holder = mDelegate.createViewHolder(parent, viewType);
         }
@@ -114,10 +145,19 @@ final class DirectoryAddonsAdapter extends DocumentsAdapter {
 
     private void onDismissHeaderMessage() {
         mHeaderMessage.reset();
-        if (mBreakPosition > 0) {
-            mBreakPosition--;
+        if (!mItems.showHeader()) {
+            return;
         }
+
+        final boolean isDiffPending = mLatestItems != mItems;
+        mItems = mItems.withoutHeader();
         notifyItemRemoved(0);
+        if (isDiffPending) {
+            // The pending diff was computed against rows that still had the header.
+            submitItems(mLatestItems.withoutHeader(), /* delta= */ null);
+        } else {
+            mLatestItems = mItems;
+        }
     }
 
     @Override
@@ -134,6 +174,8 @@ final class DirectoryAddonsAdapter extends DocumentsAdapter {
             case ITEM_TYPE_INFLATED_MESSAGE:
                 ((InflateMessageDocumentHolder) holder).bind(mInflateMessage);
                 break;
+            case ITEM_TYPE_PLACEHOLDER:
+                break;
             default:
                 mDelegate.onBindViewHolder(holder, toDelegatePosition(p), payload);
                 break;
@@ -152,6 +194,8 @@ final class DirectoryAddonsAdapter extends DocumentsAdapter {
             case ITEM_TYPE_INFLATED_MESSAGE:
                 ((InflateMessageDocumentHolder) holder).bind(mInflateMessage);
                 break;
+            case ITEM_TYPE_PLACEHOLDER:
+                break;
             default:
                 mDelegate.onBindViewHolder(holder, toDelegatePosition(p));
                 break;
@@ -160,89 +204,96 @@ final class DirectoryAddonsAdapter extends DocumentsAdapter {
 
     @Override
     public int getItemCount() {
-        int addons = mHeaderMessage.shouldShow() ? 1 : 0;
-        addons += mInflateMessage.shouldShow() ? 1 : 0;
-        return mBreakPosition == -1
-                ? mDelegate.getItemCount() + addons
-                : mDelegate.getItemCount() + addons + 1;
+        return mItems.getItemCount();
     }
 
     private void onModelUpdate(Model.Update event) {
-        // make sure the delegate handles the update before we do.
-        // This isn't ideal since the delegate might be listening
-        // the updates itself. But this is the safe thing to do
-        // since we read model ids from the delegate
-        // in our update handler.
-        mDelegate.getModelUpdateListener().accept(event);
-
-        mBreakPosition = -1;
         mInflateMessage.update(event);
         mHeaderMessage.update(event);
-        // If there's any fatal error (exceptions), then no need to update the rest.
-        if (event.hasException()) {
+
+        // If there's any fatal error (exceptions), then there are no documents to show.
+        final Model model = mEnv.getModel();
+        submitItems(event.hasException()
+                ? new DirectoryItems(new String[0], null,
+                        mHeaderMessage.shouldShow(), mInflateMessage.shouldShow())
+                : new DirectoryItems(model.getModelIds(), model.getTable(),
+                        mHeaderMessage.shouldShow(), mInflateMessage.shouldShow(),
+                        model.getUnloadedBefore(), model.getUnloadedAfter()),
+                event.getDelta());
+    }
+
+    private void submitItems(DirectoryItems newItems, @Nullable DirectoryDelta delta) {
+        final int generation = ++mDiffGeneration;
+        final DirectoryItems oldItems = mItems;
+        mLatestItems = newItems;
+
+        if (oldItems.getDocumentCount() == 0 || newItems.getDocumentCount() == 0) {
+            // Nothing to match up, e.g. the first load of a directory.
+            setItems(newItems);
+            notifyDataSetChanged();
             return;
         }
 
-        // Walk down the list of IDs till we encounter something that's not a directory, and
-        // insert a whitespace element - this introduces a visual break in the grid between
-        // folders and documents.
-        // TODO: This code makes assumptions about the model, namely, that it performs a
-        // bucketed sort where directories will always be ordered before other files. CBB.
-        Model model = mEnv.getModel();
-        for (int i = 0; i < model.getModelIds().length; i++) {
-            if (!isDirectory(model, i)) {
-                // If the break is the first thing in the list, then there are actually no
-                // directories. In that case, don't insert a break at all.
-                if (i > 0) {
-                    mBreakPosition = i + (mHeaderMessage.shouldShow() ? 1 : 0);
-                }
-                break;
+        // The delta is relative to the previous model update, which is only what's shown if no
+        // diff was pending.
+        if (delta != null && !delta.isBasedOn(oldItems.getModelIds())) {
+            delta = null;
+        }
+        if (delta != null && oldItems.hasSameRows(newItems)) {
+            // Only some documents changed in place, just rebind those.
+            setItems(newItems);
+            for (String modelId : delta.getChangedIds()) {
+                notifyItemChanged(getPosition(modelId));
+            }
+            // Messages are updated in place with every model update.
+            if (newItems.showHeader()) {
+                notifyItemChanged(0);
+            }
+            if (newItems.showInflate()) {
+                notifyItemChanged(getItemCount() - 1);
             }
+            return;
         }
+        final DirectoryDelta diffDelta = delta;
+
+        mDiffExecutor.execute(() -> {
+            // Moves are not detected: a re-sort moves most rows, and those are cheaper to
+            // publish as removals and insertions than to match up.
+            final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(
+                    DirectoryItems.diff(oldItems, newItems, diffDelta), /* detectMoves= */ false);
+            mMainHandler.post(() -> {
+                if (generation != mDiffGeneration) {
+                    // A newer update has been submitted in the meantime.
+                    return;
+                }
+                setItems(newItems);
+                diff.dispatchUpdatesTo(this);
+            });
+        });
+    }
+
+    private void setItems(DirectoryItems items) {
+        mItems = items;
+        mDelegate.setItems(items.getModelIds(), items.getTable());
     }
 
     @Override
     public int getItemViewType(int p) {
-        if (p == 0 && mHeaderMessage.shouldShow()) {
-            return ITEM_TYPE_HEADER_MESSAGE;
-        }
-
-        if (p == mBreakPosition) {
-            return ITEM_TYPE_SECTION_BREAK;
-        }
-
-        if (p == getItemCount() - 1 && mInflateMessage.shouldShow()) {
-            return ITEM_TYPE_INFLATED_MESSAGE;
-        }
-
-        return mDelegate.getItemViewType(toDelegatePosition(p));
+        final int addonType = mItems.getAddonType(p);
+        return (addonType != 0) ? addonType : mDelegate.getItemViewType(toDelegatePosition(p));
     }
 
-    /**
-     * Returns the position of an item in the delegate, adjusting
-     * values that are greater than the break position.
-     *
-     * @param p Position within the view
-     * @return Position within the delegate
-     */
     private int toDelegatePosition(int p) {
-        int topOffset = mHeaderMessage.shouldShow() ? 1 : 0;
-        return (mBreakPosition != -1 && p > mBreakPosition) ? p - 1 - topOffset : p - topOffset;
+        return mItems.toDelegatePosition(p);
     }
 
-    /**
-     * Returns the position of an item in the view, adjusting
-     * values that are greater than the break position.
-     *
-     * @param p Position within the delegate
-     * @return Position within the view
-     */
     private int toViewPosition(int p) {
-        int topOffset = mHeaderMessage.shouldShow() ? 1 : 0;
-        // Offset it first so we can compare break position correctly
-        p += topOffset;
-        // If position is greater than or equal to the break, increase by one.
-        return (mBreakPosition != -1 && p >= mBreakPosition) ? p + 1 : p;
+        return mItems.toViewPosition(p);
+    }
+
+    @Override
+    int getListingPosition(int p) {
+        return mItems.toListingPosition(p);
     }
 
     @Override
@@ -252,20 +303,13 @@ final class DirectoryAddonsAdapter extends DocumentsAdapter {
 
     @Override
     public int getAdapterPosition(String modelId) {
-        return toViewPosition(mDelegate.getAdapterPosition(modelId));
+        final int position = mDelegate.getAdapterPosition(modelId);
+        return (position != RecyclerView.NO_POSITION) ? toViewPosition(position) : position;
     }
 
     @Override
     public String getStableId(int p) {
-        if (p == mBreakPosition) {
-            return null;
-        }
-
-        if (p == 0 && mHeaderMessage.shouldShow()) {
-            return null;
-        }
-
-        if (p == getItemCount() - 1 && mInflateMessage.shouldShow()) {
+        if (mItems.getAddonType(p) != 0) {
             return null;
         }
 
@@ -274,49 +318,47 @@ final class DirectoryAddonsAdapter extends DocumentsAdapter {
 
     @Override
     public int getPosition(String id) {
-        return toViewPosition(mDelegate.getPosition(id));
+        final int position = mDelegate.getPosition(id);
+        return (position != RecyclerView.NO_POSITION) ? toViewPosition(position) : position;
     }
 
     // Listener we add to our delegate. This allows us to relay events published
     // by the delegate to our listeners (presumably RecyclerView) with adjusted positions.
+    // The delegate doesn't publish structural changes on its own, those are diffed by us
+    // in #submitItems, so anything but single row changes simply invalidates everything.
     private final class EventRelay extends AdapterDataObserver {
         @Override
         public void onChanged() {
-            throw new UnsupportedOperationException();
+            notifyDataSetChanged();
         }
 
         @Override
         public void onItemRangeChanged(int positionStart, int itemCount) {
-            throw new UnsupportedOperationException();
+            onItemRangeChanged(positionStart, itemCount, null);
         }
 
         @Override
         public void onItemRangeChanged(int positionStart, int itemCount, Object payload) {
-            assert(itemCount == 1);
-            notifyItemRangeChanged(toViewPosition(positionStart), itemCount, payload);
+            if (itemCount == 1) {
+                notifyItemChanged(toViewPosition(positionStart), payload);
+            } else {
+                notifyDataSetChanged();
+            }
         }
 
         @Override
         public void onItemRangeInserted(int positionStart, int itemCount) {
-            assert(itemCount == 1);
-            if (positionStart < mBreakPosition) {
-                mBreakPosition++;
-            }
-            notifyItemRangeInserted(toViewPosition(positionStart), itemCount);
+            notifyDataSetChanged();
         }
 
         @Override
         public void onItemRangeRemoved(int positionStart, int itemCount) {
-            assert(itemCount == 1);
-            if (positionStart < mBreakPosition) {
-                mBreakPosition--;
-            }
-            notifyItemRangeRemoved(toViewPosition(positionStart), itemCount);
+            notifyDataSetChanged();
         }
 
         @Override
         public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
-            throw new UnsupportedOperationException();
+            notifyDataSetChanged();
         }
     }
 }
@@ -75,6 +75,7 @@ import com.blabla.documentsui.ActionHandler;
 import com.blabla.documentsui.ActionModeController;
 import com.blabla.documentsui.BaseActivity;
 import com.blabla.documentsui.ContentLock;
+import com.blabla.documentsui.DirectoryDelta;
 import com.blabla.documentsui.DocsSelectionHelper.DocDetailsLookup;
 import com.blabla.documentsui.DocumentsApplication;
 import com.blabla.documentsui.DragHoverListener;
@@ -183,9 +184,10 @@ public class DirectoryFragment extends Fragment implements SwipeRefreshLayout.On
     private IconHelper mIconHelper;
     private SwipeRefreshLayout mRefreshLayout;
     private RecyclerView mRecView;
-    private DocumentsAdapter mAdapter;
+    private DirectoryAddonsAdapter mAdapter;
     private DocumentClipper mClipper;
     private GridLayoutManager mLayout;
+    private ThumbnailPrefetcher mThumbnailPrefetcher;
     private int mColumnCount = 1;  // This will get updated when layout changes.
     private int mColumnUnit = 1;
 
@@ -209,9 +211,9 @@ public class DirectoryFragment extends Fragment implements SwipeRefreshLayout.On
     private ContentLock mContentLock = new ContentLock();
 
     private SortModel.UpdateListener mSortListener = (model, updateType) -> {
-        // Only when sort order has changed do we need to trigger another loading.
+        // Only when sort order has changed do we need to re-order the loaded documents.
         if ((updateType & SortModel.UPDATE_TYPE_SORTING) != 0) {
-            mActions.loadDocumentsForCurrentStack();
+            mActions.sortDocumentsForCurrentStack();
         }
     };
 
@@ -361,6 +363,16 @@ public class DirectoryFragment extends Fragment implements SwipeRefreshLayout.On
                         cancelThumbnailTask(holder.itemView);
                     }
                 });
+        mRecView.addOnScrollListener(
+                new RecyclerView.OnScrollListener() {
+                    @Override
+                    public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+                        loadPagesAroundVisibleItems(dy);
+                        if (mThumbnailPrefetcher != null) {
+                            mThumbnailPrefetcher.onScrolled(dy);
+                        }
+                    }
+                });
 
         mRefreshLayout = (SwipeRefreshLayout) mRootView.findViewById(R.id.refresh_layout);
         mRefreshLayout.setOnRefreshListener(this);
@@ -418,6 +430,9 @@ public class DirectoryFragment extends Fragment implements SwipeRefreshLayout.On
             final View view = mRecView.getChildAt(i);
             cancelThumbnailTask(view);
         }
+        if (mThumbnailPrefetcher != null) {
+            mThumbnailPrefetcher.cancel();
+        }
 
         mModel.removeUpdateListener(mModelUpdateListener);
         mModel.removeUpdateListener(mAdapter.getModelUpdateListener());
@@ -465,6 +480,7 @@ public class DirectoryFragment extends Fragment implements SwipeRefreshLayout.On
             mLayout.setSpanSizeLookup(lookup);
         }
         mRecView.setLayoutManager(mLayout);
+        mThumbnailPrefetcher = new ThumbnailPrefetcher(mIconHelper, mModel, mAdapter, mLayout);
 
         mModel.addUpdateListener(mAdapter.getModelUpdateListener());
         mModel.addUpdateListener(mModelUpdateListener);
@@ -479,7 +495,7 @@ public class DirectoryFragment extends Fragment implements SwipeRefreshLayout.On
                 new AccessibilityEventRouter(mRecView,
                         (View child) -> onAccessibilityClick(child),
                         (View child) -> onAccessibilityLongClick(child)));
-        mSelectionMetadata = new SelectionMetadata(mModel::getItem);
+        mSelectionMetadata = new SelectionMetadata(mModel);
         mDetailsLookup = new DocsItemDetailsLookup(mRecView);
 
         DragStartListener dragStartListener = mInjector.config.dragAndDropEnabled()
@@ -716,6 +732,10 @@ public class DirectoryFragment extends Fragment implements SwipeRefreshLayout.On
         mRecView.setPadding(pad, mAppBarHeight, pad, mSaveLayoutHeight);
         mRecView.requestLayout();
         mIconHelper.setViewMode(mode);
+        if (mThumbnailPrefetcher != null) {
+            // Prefetched thumbnails are of the previous size.
+            mThumbnailPrefetcher.cancel();
+        }
 
         int range = getResources().getDimensionPixelOffset(R.dimen.refresh_icon_range);
         mRefreshLayout.setProgressViewOffset(true, mAppBarHeight, mAppBarHeight + range);
@@ -1382,6 +1402,20 @@ public class DirectoryFragment extends Fragment implements SwipeRefreshLayout.On
         );
     }
 
+    // Follows scrolling through a paged directory with the pages that are loaded.
+    private void loadPagesAroundVisibleItems(int dy) {
+        if (dy == 0 || mLayout == null || !mModel.isPaged()) {
+            return;
+        }
+        final int first = mLayout.findFirstVisibleItemPosition();
+        final int last = mLayout.findLastVisibleItemPosition();
+        if (first == RecyclerView.NO_POSITION || last == RecyclerView.NO_POSITION) {
+            return;
+        }
+        mActions.loadPagesAround(mAdapter.getListingPosition(first),
+                mAdapter.getListingPosition(last), /* forward= */ dy > 0);
+    }
+
     private final class ModelUpdateListener implements EventListener<Model.Update> {
 
         @Override
@@ -1392,17 +1426,28 @@ public class DirectoryFragment extends Fragment implements SwipeRefreshLayout.On
 
             mProgressBar.setVisibility(mModel.isLoading() ? View.VISIBLE : View.GONE);
 
+            // The documents may have moved, prefetch again on the next scroll.
+            if (mThumbnailPrefetcher != null) {
+                mThumbnailPrefetcher.cancel();
+            }
+
             updateLayout(mState.derivedMode);
 
-            // Update the selection to remove any disappeared IDs.
-            Iterator<String> selectionIter = mSelectionMgr.getSelection().iterator();
-            while (selectionIter.hasNext()) {
-                if (!mAdapter.getStableIds().contains(selectionIter.next())) {
-                    selectionIter.remove();
+            // Update the selection to remove any disappeared IDs. The model indexes its IDs by
+            // hash, so this scales with the size of the selection, not of the directory. Check
+            // the model rather than the adapter, which may not have published the update yet.
+            // Nothing can have disappeared if the update says no document was removed.
+            final DirectoryDelta delta = update.getDelta();
+            if (delta == null || !delta.getRemovedIds().isEmpty()) {
+                Iterator<String> selectionIter = mSelectionMgr.getSelection().iterator();
+                while (selectionIter.hasNext()) {
+                    if (mModel.getItemIndex(selectionIter.next()) == -1) {
+                        selectionIter.remove();
+                    }
                 }
             }
 
-            mAdapter.notifyDataSetChanged();
+            // The adapter publishes the rows that changed by itself, see DirectoryAddonsAdapter.
 
             if (mRestoredState != null) {
                 mSelectionMgr.onRestoreInstanceState(mRestoredState);
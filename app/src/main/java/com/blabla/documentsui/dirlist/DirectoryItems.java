@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.blabla.documentsui.dirlist;
+
+import static com.blabla.documentsui.dirlist.DocumentsAdapter.ITEM_TYPE_HEADER_MESSAGE;
+import static com.blabla.documentsui.dirlist.DocumentsAdapter.ITEM_TYPE_INFLATED_MESSAGE;
+import static com.blabla.documentsui.dirlist.DocumentsAdapter.ITEM_TYPE_PLACEHOLDER;
+import static com.blabla.documentsui.dirlist.DocumentsAdapter.ITEM_TYPE_SECTION_BREAK;
+
+import android.text.TextUtils;
+
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
+
+import com.blabla.documentsui.DirectoryDelta;
+import com.blabla.documentsui.DocumentTable;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * An immutable snapshot of the rows shown by {@link DirectoryAddonsAdapter}: the documents of a
+ * model update, plus the header message, section break and inflated message rows laid out around
+ * them. Two snapshots can be compared with {@link #diff} to find out which rows changed.
+ *
+ * <p>For a paged directory, the documents of pages that aren't loaded are shown as placeholder
+ * rows before and after the loaded ones.
+ */
+final class DirectoryItems {
+
+    static final DirectoryItems EMPTY =
+            new DirectoryItems(new String[0], null, /* showHeader= */ false, false);
+
+    private final String[] mModelIds;
+    private final @Nullable DocumentTable mTable;
+    private final boolean mShowHeader;
+    private final boolean mShowInflate;
+    // Placeholder rows for the documents of a paged directory before and after the loaded ones.
+    private final int mUnloadedBefore;
+    private final int mUnloadedAfter;
+    // View position of the section break between directories and documents, or -1.
+    private final int mBreakPosition;
+
+    /**
+     * @param modelIds the documents in display order
+     * @param table the snapshot holding the documents, row {@code i} being {@code modelIds[i]}
+     */
+    DirectoryItems(String[] modelIds, @Nullable DocumentTable table, boolean showHeader,
+            boolean showInflate) {
+        this(modelIds, table, showHeader, showInflate, 0, 0);
+    }
+
+    /**
+     * @param unloadedBefore the number of placeholder rows before the documents
+     * @param unloadedAfter the number of placeholder rows after the documents
+     */
+    DirectoryItems(String[] modelIds, @Nullable DocumentTable table, boolean showHeader,
+            boolean showInflate, int unloadedBefore, int unloadedAfter) {
+        mModelIds = modelIds;
+        mTable = table;
+        mShowHeader = showHeader;
+        mShowInflate = showInflate;
+        mUnloadedBefore = unloadedBefore;
+        mUnloadedAfter = unloadedAfter;
+        mBreakPosition = findBreakPosition(table, modelIds.length,
+                (showHeader ? 1 : 0) + unloadedBefore);
+    }
+
+    // Walk down the list of IDs till we encounter something that's not a directory, and
+    // insert a whitespace element - this introduces a visual break in the grid between
+    // folders and documents.
+    // TODO: This code makes assumptions about the model, namely, that it performs a
+    // bucketed sort where directories will always be ordered before other files. CBB.
+    private static int findBreakPosition(
+            @Nullable DocumentTable table, int count, int topOffset) {
+        if (table == null) {
+            return -1;
+        }
+        for (int i = 0; i < count; i++) {
+            if (!table.isDirectory(i)) {
+                // If the break is the first thing in the list, then there are actually no
+                // directories. In that case, don't insert a break at all.
+                return (i > 0) ? i + topOffset : -1;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns a copy of this snapshot without the header message row. */
+    DirectoryItems withoutHeader() {
+        return mShowHeader
+                ? new DirectoryItems(mModelIds, mTable, false, mShowInflate, mUnloadedBefore,
+                        mUnloadedAfter)
+                : this;
+    }
+
+    String[] getModelIds() {
+        return mModelIds;
+    }
+
+    @Nullable DocumentTable getTable() {
+        return mTable;
+    }
+
+    int getDocumentCount() {
+        return mModelIds.length;
+    }
+
+    boolean showHeader() {
+        return mShowHeader;
+    }
+
+    boolean showInflate() {
+        return mShowInflate;
+    }
+
+    int getBreakPosition() {
+        return mBreakPosition;
+    }
+
+    /**
+     * Returns whether {@code other} has the same rows in the same order, so that it only differs
+     * from this snapshot in what some of the rows show.
+     */
+    boolean hasSameRows(DirectoryItems other) {
+        return mShowHeader == other.mShowHeader
+                && mShowInflate == other.mShowInflate
+                && mBreakPosition == other.mBreakPosition
+                && mUnloadedBefore == other.mUnloadedBefore
+                && mUnloadedAfter == other.mUnloadedAfter
+                && Arrays.equals(mModelIds, other.mModelIds);
+    }
+
+    int getItemCount() {
+        int addons = mShowHeader ? 1 : 0;
+        addons += mShowInflate ? 1 : 0;
+        addons += mUnloadedBefore + mUnloadedAfter;
+        return mBreakPosition == -1
+                ? mModelIds.length + addons
+                : mModelIds.length + addons + 1;
+    }
+
+    /**
+     * Returns the item type of an addon row, or 0 if the row at {@code p} holds a document.
+     */
+    int getAddonType(int p) {
+        if (p == 0 && mShowHeader) {
+            return ITEM_TYPE_HEADER_MESSAGE;
+        }
+        if (p == mBreakPosition) {
+            return ITEM_TYPE_SECTION_BREAK;
+        }
+        if (p == getItemCount() - 1 && mShowInflate) {
+            return ITEM_TYPE_INFLATED_MESSAGE;
+        }
+        if (p < getTopOffset() || p >= getDocumentsEnd()) {
+            return ITEM_TYPE_PLACEHOLDER;
+        }
+        return 0;
+    }
+
+    // View position of the first loaded document.
+    private int getTopOffset() {
+        return (mShowHeader ? 1 : 0) + mUnloadedBefore;
+    }
+
+    // View position after the last loaded document.
+    private int getDocumentsEnd() {
+        return getTopOffset() + mModelIds.length + (mBreakPosition != -1 ? 1 : 0);
+    }
+
+    /**
+     * Returns the position of a row among all documents of the directory, loaded or not. Addon
+     * rows count as the document next to them.
+     *
+     * @param p Position within the view
+     */
+    int toListingPosition(int p) {
+        final int headerOffset = mShowHeader ? 1 : 0;
+        final int topOffset = getTopOffset();
+        final int documentsEnd = getDocumentsEnd();
+        if (p < topOffset) {
+            return Math.max(0, p - headerOffset);
+        }
+        if (p < documentsEnd) {
+            return mUnloadedBefore + toDelegatePosition(p);
+        }
+        return mUnloadedBefore + mModelIds.length
+                + Math.min(p - documentsEnd, Math.max(0, mUnloadedAfter - 1));
+    }
+
+    /**
+     * Returns the position of an item in the delegate, adjusting
+     * values that are greater than the break position.
+     *
+     * @param p Position within the view
+     * @return Position within the delegate
+     */
+    int toDelegatePosition(int p) {
+        int topOffset = getTopOffset();
+        return (mBreakPosition != -1 && p > mBreakPosition) ? p - 1 - topOffset : p - topOffset;
+    }
+
+    /**
+     * Returns the position of an item in the view, adjusting
+     * values that are greater than the break position.
+     *
+     * @param p Position within the delegate
+     * @return Position within the view
+     */
+    int toViewPosition(int p) {
+        int topOffset = getTopOffset();
+        // Offset it first so we can compare break position correctly
+        p += topOffset;
+        // If position is greater than or equal to the break, increase by one.
+        return (mBreakPosition != -1 && p >= mBreakPosition) ? p + 1 : p;
+    }
+
+    /**
+     * Returns a callback for {@link DiffUtil} that compares the rows of two snapshots. Documents
+     * are the same item if they have the same model ID, and only need to be rebound if what the
+     * holders show of them changed. Doesn't touch the position of the tables, so it can run on a
+     * background thread.
+     *
+     * @param delta the changes between the documents of the snapshots if known, in which case
+     *     the rows are not compared column by column.
+     */
+    static DiffUtil.Callback diff(DirectoryItems oldItems, DirectoryItems newItems,
+            @Nullable DirectoryDelta delta) {
+        return new DiffCallback(oldItems, newItems, delta);
+    }
+
+    private static final class DiffCallback extends DiffUtil.Callback {
+        private final DirectoryItems mOld;
+        private final DirectoryItems mNew;
+        private final @Nullable DirectoryDelta mDelta;
+
+        private DiffCallback(DirectoryItems oldItems, DirectoryItems newItems,
+                @Nullable DirectoryDelta delta) {
+            mOld = oldItems;
+            mNew = newItems;
+            mDelta = delta;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOld.getItemCount();
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNew.getItemCount();
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldPosition, int newPosition) {
+            final int oldType = mOld.getAddonType(oldPosition);
+            final int newType = mNew.getAddonType(newPosition);
+            if (oldType != 0 || newType != 0) {
+                return oldType == newType;
+            }
+            // Rows whose model ID couldn't be built, see ModelId#build, are never the same item.
+            final String oldId = mOld.mModelIds[mOld.toDelegatePosition(oldPosition)];
+            return oldId != null
+                    && Objects.equals(oldId, mNew.mModelIds[mNew.toDelegatePosition(newPosition)]);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldPosition, int newPosition) {
+            switch (mOld.getAddonType(oldPosition)) {
+                case ITEM_TYPE_SECTION_BREAK:
+                case ITEM_TYPE_PLACEHOLDER:
+                    return true;
+                case ITEM_TYPE_HEADER_MESSAGE:
+                case ITEM_TYPE_INFLATED_MESSAGE:
+                    // Messages are updated in place with every model update.
+                    return false;
+            }
+
+            final int newRow = mNew.toDelegatePosition(newPosition);
+            if (mDelta != null) {
+                return !mDelta.getChangedIds().contains(mNew.mModelIds[newRow]);
+            }
+
+            final DocumentTable oldTable = mOld.mTable;
+            final DocumentTable newTable = mNew.mTable;
+            final int oldRow = mOld.toDelegatePosition(oldPosition);
+            return oldTable.getLastModified(oldRow) == newTable.getLastModified(newRow)
+                    && oldTable.getFlags(oldRow) == newTable.getFlags(newRow)
+                    && oldTable.getSize(oldRow) == newTable.getSize(newRow)
+                    && oldTable.getIcon(oldRow) == newTable.getIcon(newRow)
+                    && TextUtils.equals(oldTable.getDisplayName(oldRow),
+                            newTable.getDisplayName(newRow))
+                    && TextUtils.equals(oldTable.getMimeType(oldRow),
+                            newTable.getMimeType(newRow))
+                    && TextUtils.equals(oldTable.getSummary(oldRow),
+                            newTable.getSummary(newRow));
+        }
+    }
+}
@@ -17,17 +17,15 @@ package com.blabla.documentsui.dirlist;
 
 import static androidx.core.util.Preconditions.checkArgument;
 
-import android.database.Cursor;
-import android.provider.DocumentsContract.Document;
 import android.util.Log;
 
 import androidx.recyclerview.selection.SelectionTracker.SelectionPredicate;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.blabla.documentsui.ActivityConfig;
+import com.blabla.documentsui.DocumentTable;
 import com.blabla.documentsui.Model;
 import com.blabla.documentsui.base.State;
-import com.blabla.documentsui.base.DocumentInfo;
 
 /**
  * Class embodying the logic as to whether an item (specified by id or position)
@@ -59,15 +57,14 @@ final class DocsSelectionPredicate extends SelectionPredicate<String> {
     public boolean canSetStateForKey(String id, boolean nextState) {
         if (nextState) {
             // Check if an item can be selected
-            final Cursor cursor = mModel.getItem(id);
-            if (cursor == null) {
-                Log.w(DirectoryFragment.TAG, "Couldn't obtain cursor for id: " + id);
+            final int row = mModel.getItemIndex(id);
+            if (row == -1) {
+                Log.w(DirectoryFragment.TAG, "Couldn't obtain row for id: " + id);
                 return false;
             }
 
-            final String docMimeType = DocumentInfo.getCursorString(cursor, Document.COLUMN_MIME_TYPE);
-            final int docFlags = DocumentInfo.getCursorInt(cursor, Document.COLUMN_FLAGS);
-            return mConfig.canSelectType(docMimeType, docFlags, mState);
+            final DocumentTable table = mModel.getTable();
+            return mConfig.canSelectType(table.getMimeType(row), table.getFlags(row), mState);
         }
 
         // Right now all selected items can be deselected.
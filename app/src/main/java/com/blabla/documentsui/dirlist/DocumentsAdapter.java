@@ -27,7 +27,6 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.blabla.documentsui.ActionHandler;
 import com.blabla.documentsui.Model;
-import com.blabla.documentsui.base.EventListener;
 import com.blabla.documentsui.base.Features;
 import com.blabla.documentsui.base.State;
 
@@ -50,14 +49,13 @@ public abstract class DocumentsAdapter extends RecyclerView.Adapter<DocumentHold
     public static final int ITEM_TYPE_SECTION_BREAK = Integer.MAX_VALUE;
     public static final int ITEM_TYPE_HEADER_MESSAGE = Integer.MAX_VALUE - 1;
     public static final int ITEM_TYPE_INFLATED_MESSAGE = Integer.MAX_VALUE - 2;
+    public static final int ITEM_TYPE_PLACEHOLDER = Integer.MAX_VALUE - 3;
 
     public abstract int getAdapterPosition(String modelId);
     public abstract String getStableId(int adapterPosition);
     public abstract List<String> getStableIds();
     public abstract int getPosition(String id);
 
-    abstract EventListener<Model.Update> getModelUpdateListener();
-
     /**
      * Returns a class that yields the span size for a particular element. This is
      * primarily useful in {@link DirectoryAddonsAdapter} where
@@ -67,17 +65,19 @@ public abstract class DocumentsAdapter extends RecyclerView.Adapter<DocumentHold
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * Returns the position of an item among all documents of the directory, including those of
+     * pages that aren't loaded. See {@link Model#isPaged()}.
+     */
+    int getListingPosition(int adapterPosition) {
+        return adapterPosition;
+    }
+
     static boolean isDirectory(Cursor cursor) {
         final String mimeType = getCursorString(cursor, Document.COLUMN_MIME_TYPE);
         return Document.MIME_TYPE_DIR.equals(mimeType);
     }
 
-    boolean isDirectory(Model model, int position) {
-        String modelId = getStableIds().get(position);
-        Cursor cursor = model.getItem(modelId);
-        return isDirectory(cursor);
-    }
-
     /**
      * Environmental access for View adapter implementations.
      */
@@ -23,6 +23,7 @@ import static com.blabla.documentsui.base.State.MODE_LIST;
 import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.Point;
+import android.graphics.drawable.BitmapDrawable;
 import android.graphics.drawable.Drawable;
 import android.net.Uri;
 import android.provider.DocumentsContract;
@@ -34,12 +35,13 @@ import android.widget.ImageView;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 
+import com.blabla.documentsui.BitmapPool;
 import com.blabla.documentsui.DocumentsApplication;
 import com.blabla.documentsui.IconUtils;
-import com.blabla.documentsui.ProviderExecutor;
 import com.blabla.documentsui.R;
 import com.blabla.documentsui.ThumbnailCache;
 import com.blabla.documentsui.ThumbnailCache.Result;
+import com.blabla.documentsui.ThumbnailExecutor;
 import com.blabla.documentsui.ThumbnailLoader;
 import com.blabla.documentsui.base.DocumentInfo;
 import com.blabla.documentsui.base.MimeTypes;
@@ -47,6 +49,8 @@ import com.blabla.documentsui.base.State;
 import com.blabla.documentsui.base.State.ViewMode;
 import com.blabla.documentsui.base.UserId;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.function.BiConsumer;
 
 /**
@@ -66,6 +70,8 @@ public class IconHelper {
     private final boolean mMaybeShowBadge;
     @Nullable
     private final UserId mManagedUser;
+    // Thumbnails being loaded ahead of their documents being shown, by uri. See #prefetch.
+    private final Map<Uri, ThumbnailLoader> mPrefetches = new HashMap<>();
 
     /**
      * @param context
@@ -174,11 +180,7 @@ public class IconHelper {
 
         final String docAuthority = uri.getAuthority();
 
-        final boolean supportsThumbnail = (docFlags & Document.FLAG_SUPPORTS_THUMBNAIL) != 0;
-        final boolean allowThumbnail = (mMode == MODE_GRID)
-                || MimeTypes.mimeMatches(MimeTypes.VISUAL_MIMES, mimeType);
-        final boolean showThumbnail = supportsThumbnail && allowThumbnail && mThumbnailsEnabled;
-        if (showThumbnail) {
+        if (shouldShowThumbnail(mimeType, docFlags)) {
             loadedThumbnail =
                 loadThumbnail(uri, userId, docAuthority, docLastModified, iconThumb, iconMime);
         }
@@ -198,19 +200,69 @@ public class IconHelper {
         }
     }
 
+    private boolean shouldShowThumbnail(String mimeType, int docFlags) {
+        final boolean supportsThumbnail = (docFlags & Document.FLAG_SUPPORTS_THUMBNAIL) != 0;
+        final boolean allowThumbnail = (mMode == MODE_GRID)
+                || MimeTypes.mimeMatches(MimeTypes.VISUAL_MIMES, mimeType);
+        return supportsThumbnail && allowThumbnail && mThumbnailsEnabled;
+    }
+
+    /**
+     * Loads the thumbnail of a document in to the cache at the current size, ahead of the
+     * document being shown. If the document is shown before the thumbnail is loaded, the
+     * prefetch is cancelled and the thumbnail is loaded the usual way. Must be called from UI
+     * thread.
+     *
+     * @return whether a load was started. None is needed if the thumbnail is cached already, is
+     *         being prefetched, or wouldn't be shown.
+     */
+    public boolean prefetch(Uri uri, UserId userId, String mimeType, int docFlags,
+            long docLastModified) {
+        if (!shouldShowThumbnail(mimeType, docFlags) || mPrefetches.containsKey(uri)) {
+            return false;
+        }
+        final Result result = mThumbnailCache.getThumbnail(uri, userId, mCurrentSize);
+        try {
+            if (result.isExactHit() && docLastModified <= result.getLastModified()) {
+                return false;
+            }
+        } finally {
+            result.recycle();
+        }
+
+        final ThumbnailLoader task = new ThumbnailLoader(mContext, uri, userId, mCurrentSize,
+                docLastModified, bitmap -> mPrefetches.remove(uri));
+        mPrefetches.put(uri, task);
+        // Prefetches run after the thumbnails of the documents on screen.
+        DocumentsApplication.getThumbnailExecutor(mContext).execute(
+                uri.getAuthority(), ThumbnailExecutor.PRIORITY_PREFETCH, task);
+        return true;
+    }
+
+    /** Cancels the prefetch of a thumbnail, see {@link #prefetch}. */
+    public void cancelPrefetch(Uri uri) {
+        final ThumbnailLoader task = mPrefetches.remove(uri);
+        if (task != null) {
+            task.preempt();
+        }
+    }
+
     private boolean loadThumbnail(Uri uri, UserId userId, String docAuthority, long docLastModified,
             ImageView iconThumb, ImageView iconMime) {
         final Result result = mThumbnailCache.getThumbnail(uri, userId, mCurrentSize);
 
         try {
             final Bitmap cachedThumbnail = result.getThumbnail();
-            iconThumb.setImageBitmap(cachedThumbnail);
+            setThumbnail(iconThumb, cachedThumbnail);
 
             boolean stale = (docLastModified > result.getLastModified());
             if (VERBOSE) Log.v(TAG,
                     String.format("Load thumbnail for %s, got result %d and stale %b.",
                             uri.toString(), result.getStatus(), stale));
             if (!result.isExactHit() || stale) {
+                // The usual load takes over from a prefetch that didn't finish in time.
+                cancelPrefetch(uri);
+
                 final BiConsumer<View, View> animator =
                         (cachedThumbnail == null ? ThumbnailLoader.ANIM_FADE_IN :
                                 ThumbnailLoader.ANIM_NO_OP);
@@ -219,12 +271,13 @@ public class IconHelper {
                         mCurrentSize, docLastModified,
                         bitmap -> {
                             if (bitmap != null) {
-                                iconThumb.setImageBitmap(bitmap);
+                                setThumbnail(iconThumb, bitmap);
                                 animator.accept(iconMime, iconThumb);
                             }
                         }, true /* addToCache */);
 
-                ProviderExecutor.forAuthority(docAuthority).execute(task);
+                DocumentsApplication.getThumbnailExecutor(mContext).execute(
+                        docAuthority, ThumbnailExecutor.PRIORITY_VISIBLE, task);
             }
 
             return result.isHit();
@@ -239,8 +292,35 @@ public class IconHelper {
     }
 
     private void hideImageView(ImageView view) {
+        final Bitmap previous = getShownBitmap(view);
         view.setImageDrawable(null);
         view.setAlpha(0f);
+        releaseThumbnail(previous);
+    }
+
+    // Shows a thumbnail. Thumbnails are kept out of the bitmap pool while they are shown.
+    private void setThumbnail(ImageView iconThumb, @Nullable Bitmap thumbnail) {
+        final Bitmap previous = getShownBitmap(iconThumb);
+        final BitmapPool pool = mThumbnailCache.getBitmapPool();
+        if (thumbnail != null && pool != null) {
+            pool.retain(thumbnail);
+        }
+        iconThumb.setImageBitmap(thumbnail);
+        releaseThumbnail(previous);
+    }
+
+    private void releaseThumbnail(@Nullable Bitmap thumbnail) {
+        final BitmapPool pool = mThumbnailCache.getBitmapPool();
+        if (thumbnail != null && pool != null) {
+            pool.release(thumbnail);
+        }
+    }
+
+    private static @Nullable Bitmap getShownBitmap(ImageView view) {
+        final Drawable drawable = view.getDrawable();
+        return (drawable instanceof BitmapDrawable)
+                ? ((BitmapDrawable) drawable).getBitmap()
+                : null;
     }
 
     private Drawable getDocumentIcon(Context context, UserId userId, String authority, String id,
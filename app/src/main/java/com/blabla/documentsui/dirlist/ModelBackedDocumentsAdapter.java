@@ -19,31 +19,26 @@ package com.blabla.documentsui.dirlist;
 import static com.blabla.documentsui.base.State.MODE_GRID;
 import static com.blabla.documentsui.base.State.MODE_LIST;
 
-import android.database.Cursor;
-import android.provider.DocumentsContract.Document;
-import android.util.Log;
 import android.view.ViewGroup;
 
+import androidx.annotation.Nullable;
 import androidx.recyclerview.selection.SelectionTracker;
 import androidx.recyclerview.widget.RecyclerView;
 
-import com.blabla.documentsui.Model;
-import com.blabla.documentsui.base.EventListener;
+import com.blabla.documentsui.DocumentTable;
 import com.blabla.documentsui.base.Lookup;
 import com.blabla.documentsui.base.State;
-import com.blabla.documentsui.roots.RootCursorWrapper;
-import com.blabla.documentsui.base.DocumentInfo;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Adapts from dirlist.Model to something RecyclerView understands.
  */
 final class ModelBackedDocumentsAdapter extends DocumentsAdapter {
 
-    private static final String TAG = "ModelBackedDocuments";
-
     // Provides access to information needed when creating and view holders. This
     // isn't an ideal pattern (more transitive dependency stuff) but good enough for now.
     private final Environment mEnv;
@@ -55,29 +50,16 @@ final class ModelBackedDocumentsAdapter extends DocumentsAdapter {
      * the UI, and where.
      */
     private List<String> mModelIds = new ArrayList<>();
-    private EventListener<Model.Update> mModelUpdateListener;
+    /** Maps model IDs to their position in {@link #mModelIds}, for constant time lookups. */
+    private final Map<String, Integer> mPositions = new HashMap<>();
+    // The snapshot holding the documents of mModelIds, row i being mModelIds[i].
+    private @Nullable DocumentTable mTable;
 
     public ModelBackedDocumentsAdapter(
             Environment env, IconHelper iconHelper, Lookup<String, String> fileTypeLookup) {
         mEnv = env;
         mIconHelper = iconHelper;
         mFileTypeLookup = fileTypeLookup;
-
-        mModelUpdateListener = new EventListener<Model.Update>() {
-            @Override
-            public void accept(Model.Update event) {
-                if (event.hasException()) {
-                    onModelUpdateFailed(event.getException());
-                } else {
-                    onModelUpdate(mEnv.getModel());
-                }
-            }
-        };
-    }
-
-    @Override
-    EventListener<Model.Update> getModelUpdateListener() {
-        return mModelUpdateListener;
     }
 
     @Override
@@ -123,13 +105,15 @@ final class ModelBackedDocumentsAdapter extends DocumentsAdapter {
 
     @Override
     public void onBindViewHolder(DocumentHolder holder, int position) {
+        // Bind from our own snapshot rather than the model, which may already hold a newer
+        // update that hasn't been published to RecyclerView yet.
         String modelId = mModelIds.get(position);
-        Cursor cursor = mEnv.getModel().getItem(modelId);
-        holder.bind(cursor, modelId);
+        mTable.moveToPosition(position);
+        holder.bind(mTable, modelId);
 
-        final String docMimeType = DocumentInfo.getCursorString(cursor, Document.COLUMN_MIME_TYPE);
-        final int docFlags = DocumentInfo.getCursorInt(cursor, Document.COLUMN_FLAGS);
-        final int userIdIdentifier = DocumentInfo.getCursorInt(cursor, RootCursorWrapper.COLUMN_USER_ID);
+        final String docMimeType = mTable.getMimeType(position);
+        final int docFlags = mTable.getFlags(position);
+        final int userIdIdentifier = mTable.getUserIdIdentifier(position);
 
         boolean enabled = mEnv.isDocumentEnabled(docMimeType, docFlags);
         boolean selected = mEnv.isSelected(modelId);
@@ -143,7 +127,8 @@ final class ModelBackedDocumentsAdapter extends DocumentsAdapter {
                 view -> mEnv.getActionHandler().previewItem(holder.getItemDetails()));
         holder.bindBriefcaseIcon(mIconHelper.shouldShowBadge(userIdIdentifier));
 
-        mEnv.onBindDocumentHolder(holder, cursor);
+        mTable.moveToPosition(position);
+        mEnv.onBindDocumentHolder(holder, mTable);
     }
 
     @Override
@@ -151,17 +136,21 @@ final class ModelBackedDocumentsAdapter extends DocumentsAdapter {
         return mModelIds.size();
     }
 
-    private void onModelUpdate(Model model) {
-        String[] modelIds = model.getModelIds();
+    /**
+     * Replaces the documents shown by this adapter. The caller is responsible for notifying
+     * observers of the change.
+     *
+     * @param modelIds the documents in display order
+     * @param table the snapshot holding the documents, row {@code i} being {@code modelIds[i]}
+     */
+    void setItems(String[] modelIds, @Nullable DocumentTable table) {
         mModelIds = new ArrayList<>(modelIds.length);
-        for (String id : modelIds) {
-            mModelIds.add(id);
+        mPositions.clear();
+        for (int i = 0; i < modelIds.length; i++) {
+            mModelIds.add(modelIds[i]);
+            mPositions.put(modelIds[i], i);
         }
-    }
-
-    private void onModelUpdateFailed(Exception e) {
-        Log.w(TAG, "Model update failed.", e);
-        mModelIds.clear();
+        mTable = table;
     }
 
     @Override
@@ -171,7 +160,7 @@ final class ModelBackedDocumentsAdapter extends DocumentsAdapter {
 
     @Override
     public int getAdapterPosition(String modelId) {
-        return mModelIds.indexOf(modelId);
+        return getPosition(modelId);
     }
 
     @Override
@@ -181,13 +170,13 @@ final class ModelBackedDocumentsAdapter extends DocumentsAdapter {
 
     @Override
     public int getPosition(String id) {
-        int position = mModelIds.indexOf(id);
-        return position >= 0 ? position : RecyclerView.NO_POSITION;
+        Integer position = mPositions.get(id);
+        return (position != null) ? position : RecyclerView.NO_POSITION;
     }
 
     @Override
     public int getItemViewType(int position) {
-        return isDirectory(mEnv.getModel(), position)
+        return mTable.isDirectory(position)
                 ? ITEM_TYPE_DIRECTORY
                 : ITEM_TYPE_DOCUMENT;
     }
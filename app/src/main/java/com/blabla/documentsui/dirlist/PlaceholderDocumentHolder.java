@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.blabla.documentsui.dirlist;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.view.View;
+import android.view.ViewGroup;
+
+import com.blabla.documentsui.R;
+import com.blabla.documentsui.base.State;
+
+/**
+ * Stands in for a document of a page that isn't loaded yet, so that the list has its full
+ * size while scrolling. Laid out like a document in the current mode, but shows nothing.
+ * Used by {@link DirectoryAddonsAdapter}.
+ */
+final class PlaceholderDocumentHolder extends MessageHolder {
+
+    public PlaceholderDocumentHolder(Context context, ViewGroup parent, int mode) {
+        super(context, parent,
+                mode == State.MODE_GRID ? R.layout.item_doc_grid : R.layout.item_doc_list);
+        itemView.setVisibility(View.INVISIBLE);
+    }
+
+    @Override
+    public void bind(Cursor cursor, String modelId) {
+        // Nothing to show until the page is loaded.
+    }
+}
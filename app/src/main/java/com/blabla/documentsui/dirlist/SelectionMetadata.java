@@ -16,19 +16,16 @@
 
 package com.blabla.documentsui.dirlist;
 
-import android.database.Cursor;
 import android.provider.DocumentsContract.Document;
 import android.util.Log;
 
 import androidx.recyclerview.selection.SelectionTracker.SelectionObserver;
 
+import com.blabla.documentsui.DocumentTable;
 import com.blabla.documentsui.MenuManager;
+import com.blabla.documentsui.Model;
 import com.blabla.documentsui.archives.ArchivesProvider;
 import com.blabla.documentsui.base.MimeTypes;
-import com.blabla.documentsui.roots.RootCursorWrapper;
-import com.blabla.documentsui.base.DocumentInfo;
-
-import java.util.function.Function;
 
 /**
  * A class that aggregates document metadata describing the selection. It can answer questions
@@ -44,7 +41,7 @@ public class SelectionMetadata extends SelectionObserver<String>
     private final static int FLAG_CAN_DELETE =
             Document.FLAG_SUPPORTS_REMOVE | Document.FLAG_SUPPORTS_DELETE;
 
-    private final Function<String, Cursor> mDocFinder;
+    private final Model mModel;
 
     private int mDirectoryCount = 0;
     private int mFileCount = 0;
@@ -57,29 +54,30 @@ public class SelectionMetadata extends SelectionObserver<String>
     private int mInArchiveCount = 0;
     private boolean mSupportsSettings = false;
 
-    public SelectionMetadata(Function<String, Cursor> docFinder) {
-        mDocFinder = docFinder;
+    public SelectionMetadata(Model model) {
+        mModel = model;
     }
 
     @Override
     public void onItemStateChanged(String modelId, boolean selected) {
-        final Cursor cursor = mDocFinder.apply(modelId);
-        if (cursor == null) {
-            Log.w(TAG, "Model returned null cursor for document: " + modelId
+        final int row = mModel.getItemIndex(modelId);
+        if (row == -1) {
+            Log.w(TAG, "Model returned no row for document: " + modelId
                     + ". Ignoring state changed event.");
             return;
         }
+        final DocumentTable table = mModel.getTable();
 
         final int delta = selected ? 1 : -1;
 
-        final String mimeType = DocumentInfo.getCursorString(cursor, Document.COLUMN_MIME_TYPE);
+        final String mimeType = table.getMimeType(row);
         if (MimeTypes.isDirectoryType(mimeType)) {
             mDirectoryCount += delta;
         } else {
             mFileCount += delta;
         }
 
-        final int docFlags = DocumentInfo.getCursorInt(cursor, Document.COLUMN_FLAGS);
+        final int docFlags = table.getFlags(row);
         if ((docFlags & Document.FLAG_PARTIAL) != 0) {
             mPartialCount += delta;
         }
@@ -99,7 +97,7 @@ public class SelectionMetadata extends SelectionObserver<String>
                 (mFileCount + mDirectoryCount) == 1;
 
 
-        final String authority = DocumentInfo.getCursorString(cursor, RootCursorWrapper.COLUMN_AUTHORITY);
+        final String authority = table.getAuthority(row);
         if (ArchivesProvider.AUTHORITY.equals(authority)) {
             mInArchiveCount += delta;
         }
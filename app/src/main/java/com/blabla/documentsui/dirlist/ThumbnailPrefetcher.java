@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.blabla.documentsui.dirlist;
+
+import android.net.Uri;
+import android.os.SystemClock;
+import android.view.View;
+
+import androidx.recyclerview.widget.GridLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.blabla.documentsui.DocumentTable;
+import com.blabla.documentsui.Model;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Loads the thumbnails of the documents ahead of a scrolling directory list in to the cache, so
+ * that they are ready by the time the documents are shown. See {@link IconHelper#prefetch}.
+ *
+ * <p>How far ahead depends on how fast the list is scrolled. Prefetches are cancelled when the
+ * scroll direction reverses, and when their documents end up far off screen.
+ */
+final class ThumbnailPrefetcher {
+
+    // How far ahead to prefetch, as the time it takes to scroll there at the current speed.
+    private static final int PREFETCH_AHEAD_MILLIS = 500;
+    // Rows of the grid to prefetch ahead at least and at most.
+    private static final int MIN_PREFETCH_ROWS = 1;
+    private static final int MAX_PREFETCH_ROWS = 8;
+    // Scroll events further apart than this start a new scroll, rather than telling its speed.
+    private static final int MAX_SCROLL_EVENT_INTERVAL_MILLIS = 100;
+    private static final int FRAME_MILLIS = 16;
+
+    private final IconHelper mIconHelper;
+    private final Model mModel;
+    private final DocumentsAdapter mAdapter;
+    private final GridLayoutManager mLayout;
+
+    // The documents whose thumbnails were prefetched, by adapter position.
+    private final Map<Integer, Uri> mPrefetched = new HashMap<>();
+    // 1 when scrolling down, -1 when scrolling up, 0 before the first scroll.
+    private int mDirection;
+    private long mLastScrollTime;
+
+    ThumbnailPrefetcher(IconHelper iconHelper, Model model, DocumentsAdapter adapter,
+            GridLayoutManager layout) {
+        mIconHelper = iconHelper;
+        mModel = model;
+        mAdapter = adapter;
+        mLayout = layout;
+    }
+
+    /** Follows a scroll of the list by {@code dy} pixels. */
+    void onScrolled(int dy) {
+        if (dy == 0) {
+            return;
+        }
+        final long now = SystemClock.uptimeMillis();
+        long elapsed = now - mLastScrollTime;
+        if (elapsed <= 0 || elapsed > MAX_SCROLL_EVENT_INTERVAL_MILLIS) {
+            elapsed = FRAME_MILLIS;
+        }
+        mLastScrollTime = now;
+
+        final int direction = Integer.signum(dy);
+        if (direction != mDirection) {
+            // The documents ahead are now behind.
+            cancel();
+            mDirection = direction;
+        }
+
+        final int first = mLayout.findFirstVisibleItemPosition();
+        final int last = mLayout.findLastVisibleItemPosition();
+        final View child = mLayout.getChildAt(0);
+        if (first == RecyclerView.NO_POSITION || last == RecyclerView.NO_POSITION
+                || child == null || child.getHeight() == 0) {
+            return;
+        }
+
+        final int spanCount = mLayout.getSpanCount();
+        final float pixelsAhead = (float) Math.abs(dy) / elapsed * PREFETCH_AHEAD_MILLIS;
+        final int rows = Math.max(MIN_PREFETCH_ROWS,
+                Math.min(MAX_PREFETCH_ROWS, (int) Math.ceil(pixelsAhead / child.getHeight())));
+        final int count = rows * spanCount;
+
+        cancelOffScreen(first, last, MAX_PREFETCH_ROWS * spanCount);
+
+        final int itemCount = mAdapter.getItemCount();
+        for (int i = 1; i <= count; i++) {
+            final int position = (direction > 0) ? last + i : first - i;
+            if (position < 0 || position >= itemCount) {
+                break;
+            }
+            if (!mPrefetched.containsKey(position)) {
+                prefetch(position);
+            }
+        }
+    }
+
+    private void prefetch(int position) {
+        final String modelId = mAdapter.getStableId(position);
+        final DocumentTable table = mModel.getTable();
+        final int row = (modelId != null) ? mModel.getItemIndex(modelId) : -1;
+        if (row == -1 || table == null) {
+            // Not a document, or one of a page that isn't loaded.
+            return;
+        }
+        final Uri uri = mModel.getItemUri(modelId);
+        if (mIconHelper.prefetch(uri, table.getUserId(row), table.getMimeType(row),
+                table.getFlags(row), table.getLastModified(row))) {
+            mPrefetched.put(position, uri);
+        }
+    }
+
+    // Forgets the prefetches of documents that are shown now, their holders took over, and
+    // cancels those of documents that are further than maxDistance off screen.
+    private void cancelOffScreen(int first, int last, int maxDistance) {
+        final Iterator<Map.Entry<Integer, Uri>> it = mPrefetched.entrySet().iterator();
+        while (it.hasNext()) {
+            final Map.Entry<Integer, Uri> entry = it.next();
+            final int position = entry.getKey();
+            if (position >= first && position <= last) {
+                it.remove();
+            } else if (position < first - maxDistance || position > last + maxDistance) {
+                mIconHelper.cancelPrefetch(entry.getValue());
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Cancels all prefetches, e.g. because the documents moved or the thumbnail size changed.
+     */
+    void cancel() {
+        for (Uri uri : mPrefetched.values()) {
+            mIconHelper.cancelPrefetch(uri);
+        }
+        mPrefetched.clear();
+    }
+}
@@ -27,9 +27,10 @@ import android.widget.ImageView;
 import android.widget.ImageView.ScaleType;
 import android.widget.RelativeLayout;
 
+import com.blabla.documentsui.DocumentsApplication;
 import com.blabla.documentsui.IconUtils;
-import com.blabla.documentsui.ProviderExecutor;
 import com.blabla.documentsui.R;
+import com.blabla.documentsui.ThumbnailExecutor;
 import com.blabla.documentsui.ThumbnailLoader;
 import com.blabla.documentsui.base.Display;
 import com.blabla.documentsui.base.DocumentInfo;
@@ -88,7 +89,8 @@ public final class HeaderView extends RelativeLayout implements InspectorControl
             // load the thumbnail async.
             final ThumbnailLoader task = new ThumbnailLoader(doc.derivedUri, doc.userId, mThumbnail,
                     mImageDimensions, doc.lastModified, callback, false);
-            task.executeOnExecutor(ProviderExecutor.forAuthority(doc.derivedUri.getAuthority()),
+            DocumentsApplication.getThumbnailExecutor(getContext()).execute(
+                    doc.derivedUri.getAuthority(), ThumbnailExecutor.PRIORITY_VISIBLE, task,
                     doc.derivedUri);
         }
     }
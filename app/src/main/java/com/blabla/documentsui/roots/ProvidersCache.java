@@ -190,6 +190,21 @@ public class ProvidersCache implements ProvidersAccess, LookupApplicationName {
         return mObservedAuthoritiesDetails.get(new UserAuthority(userId, authority)).packageName;
     }
 
+    /** Returns the authorities of {@code packageName} that roots have been loaded from. */
+    public List<String> getAuthoritiesForPackage(UserId userId, String packageName) {
+        final List<String> authorities = new ArrayList<>();
+        synchronized (mObservedAuthoritiesDetails) {
+            for (Map.Entry<UserAuthority, PackageDetails> entry
+                    : mObservedAuthoritiesDetails.entrySet()) {
+                if (userId.equals(entry.getKey().userId)
+                        && packageName.equals(entry.getValue().packageName)) {
+                    authorities.add(entry.getKey().authority);
+                }
+            }
+        }
+        return authorities;
+    }
+
     public void updateAsync(boolean forceRefreshAll, @Nullable Runnable callback) {
 
         // NOTE: This method is called when the UI language changes.
@@ -20,7 +20,9 @@ import static com.blabla.documentsui.base.SharedMinimal.VERBOSE;
 
 import android.database.AbstractCursor;
 import android.database.ContentObserver;
+import android.database.CrossProcessCursor;
 import android.database.Cursor;
+import android.database.CursorWindow;
 import android.os.Bundle;
 import android.util.Log;
 
@@ -43,6 +45,11 @@ public class RootCursorWrapper extends AbstractCursor {
     private final int mRootIdIndex;
     private final int mUserIdIndex;
 
+    // The window of the wrapped cursor after the last move, and how often it was (re)filled.
+    private CursorWindow mWindow;
+    private int mWindowStart = -1;
+    private int mWindowFillCount;
+
     public static final String COLUMN_USER_ID = "android:userId";
     public static final String COLUMN_AUTHORITY = "android:authority";
     public static final String COLUMN_ROOT_ID = "android:rootId";
@@ -100,7 +107,27 @@ public class RootCursorWrapper extends AbstractCursor {
 
     @Override
     public boolean onMove(int oldPosition, int newPosition) {
-        return mCursor.moveToPosition(newPosition);
+        final boolean moved = mCursor.moveToPosition(newPosition);
+        if (mCursor instanceof CrossProcessCursor) {
+            final CursorWindow window = ((CrossProcessCursor) mCursor).getWindow();
+            // Remote cursors receive a new window with every fill, local ones refill theirs.
+            if (window != null
+                    && (window != mWindow || window.getStartPosition() != mWindowStart)) {
+                mWindow = window;
+                mWindowStart = window.getStartPosition();
+                mWindowFillCount++;
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Returns how many times the wrapped cursor had to fill a new {@link CursorWindow} so far,
+     * i.e. how many window round trips to the provider reading the rows took. Always 0 for
+     * cursors that aren't backed by a window.
+     */
+    public int getWindowFillCount() {
+        return mWindowFillCount;
     }
 
     @Override
@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.blabla.documentsui.sorting;
+
+import android.text.TextUtils;
+
+import androidx.annotation.Nullable;
+
+import com.blabla.documentsui.DocumentTable;
+import com.blabla.documentsui.base.Lookup;
+import com.blabla.documentsui.base.Shared;
+import com.blabla.documentsui.sorting.SortModel.SortDimensionId;
+
+import java.text.CollationKey;
+import java.text.Collator;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Computes the sorted order of a set of rows. Sort keys are prepared once per row (a
+ * {@link CollationKey} for strings) and an index permutation is merge sorted, so the cost is
+ * O(n log n) cheap key comparisons instead of O(n log n) {@link Collator#compare} calls plus
+ * O(n^2) array moves.
+ *
+ * <p>The order is the same as {@link Shared#compareToIgnoreCaseNullable} based sorting:
+ * directories always go in front, then rows are ordered by key in the requested direction, and
+ * document ID is used as a tie breaker to achieve a stable result.
+ *
+ * <p>Once the row count reaches {@link #PARALLEL_THRESHOLD}, collation key extraction and the
+ * merge sort are split across the common {@link ForkJoinPool}. The parallel sort splits ranges
+ * exactly like the sequential one and the comparison is a total order, so both produce the same
+ * permutation and model IDs don't shuffle between loads.
+ */
+final class DocumentSorter {
+
+    // Runs shorter than this are insertion sorted before merging.
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    // Row count from which keys are built and sorted in parallel. Below this the cost of
+    // splitting up the work isn't worth it.
+    private static final int PARALLEL_THRESHOLD = 8192;
+
+    // Ranges smaller than this are handled sequentially by a single parallel task.
+    private static final int PARALLEL_GRANULARITY = 2048;
+
+    private final boolean[] mIsDirs;
+    private final String[] mIds;
+    private final int mDirectionSign;
+
+    // Exactly one of these is non-null. Empty strings have a null collation key.
+    private final CollationKey[] mStringKeys;
+    private final long[] mLongKeys;
+
+    private DocumentSorter(boolean[] isDirs, String[] ids,
+            @SortDimension.SortDirection int direction,
+            CollationKey[] stringKeys, long[] longKeys) {
+        mIsDirs = isDirs;
+        mIds = ids;
+        mStringKeys = stringKeys;
+        mLongKeys = longKeys;
+
+        switch (direction) {
+            case SortDimension.SORT_DIRECTION_ASCENDING:
+                mDirectionSign = 1;
+                break;
+            case SortDimension.SORT_DIRECTION_DESCENDING:
+                mDirectionSign = -1;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown sorting direction: " + direction);
+        }
+    }
+
+    /**
+     * Creates a sorter for string values, compared with the system collator ignoring case.
+     * Null and empty values sort before everything else.
+     *
+     * @param keyCache if not null, keys of values sorted before are taken from it rather than
+     *     built again, and it's updated with the keys of {@code values}.
+     */
+    static DocumentSorter forStrings(String[] values, boolean[] isDirs, String[] ids,
+            @SortDimension.SortDirection int direction, @Nullable SortKeyCache keyCache) {
+        final CollationKey[] keys = new CollationKey[values.length];
+        final Map<String, CollationKey> cachedKeys =
+                (keyCache != null) ? keyCache.getKeys() : Collections.emptyMap();
+        if (shouldRunInParallel(values.length)) {
+            ForkJoinPool.commonPool().invoke(
+                    new KeyTask(values, keys, cachedKeys, 0, values.length));
+        } else {
+            buildKeys(Shared.newCollator(), values, keys, cachedKeys, 0, values.length);
+        }
+        if (keyCache != null) {
+            keyCache.setKeys(values, keys);
+        }
+        return new DocumentSorter(isDirs, ids, direction, keys, null);
+    }
+
+    private static void buildKeys(Collator collator, String[] values, CollationKey[] keys,
+            Map<String, CollationKey> cachedKeys, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (TextUtils.isEmpty(values[i])) {
+                keys[i] = null;
+                continue;
+            }
+            final CollationKey cached = cachedKeys.get(values[i]);
+            keys[i] = (cached != null) ? cached : collator.getCollationKey(values[i]);
+        }
+    }
+
+    private static boolean shouldRunInParallel(int count) {
+        return count >= PARALLEL_THRESHOLD && ForkJoinPool.getCommonPoolParallelism() > 1;
+    }
+
+    /**
+     * Creates a sorter for the rows of {@code table}, using the same keys as
+     * {@link SortingCursorWrapper}.
+     *
+     * @return the sorter, or null if the dimension doesn't define an order.
+     */
+    static @Nullable DocumentSorter forTable(DocumentTable table, SortDimension dimension,
+            Lookup<String, String> fileTypeLookup, @Nullable SortKeyCache keyCache) {
+        final int count = table.getCount();
+        final boolean[] isDirs = new boolean[count];
+        final String[] ids = new String[count];
+        for (int i = 0; i < count; i++) {
+            isDirs[i] = table.isDirectory(i);
+            ids[i] = table.getDocumentId(i);
+        }
+
+        final @SortDimensionId int id = dimension.getId();
+        final int direction = dimension.getSortDirection();
+        if (id == SortModel.SORT_DIMENSION_ID_TITLE || id == SortModel.SORT_DIMENSION_ID_FILE_TYPE) {
+            final String[] values = new String[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = (id == SortModel.SORT_DIMENSION_ID_TITLE)
+                        ? table.getDisplayName(i)
+                        : fileTypeLookup.lookup(table.getMimeType(i));
+            }
+            return forStrings(values, isDirs, ids, direction, keyCache);
+        } else if (id == SortModel.SORT_DIMENSION_ID_DATE) {
+            final long[] values = new long[count];
+            for (int i = 0; i < count; i++) {
+                // Documents without a timestamp (e.g. active downloads) go to the top when
+                // sorting descending by date.
+                final long lastModified = table.getLastModified(i);
+                values[i] = (lastModified == -1) ? Long.MAX_VALUE : lastModified;
+            }
+            return forLongs(values, isDirs, ids, direction);
+        } else if (id == SortModel.SORT_DIMENSION_ID_SIZE) {
+            final long[] values = new long[count];
+            for (int i = 0; i < count; i++) {
+                values[i] = table.getSize(i);
+            }
+            return forLongs(values, isDirs, ids, direction);
+        }
+        return null;
+    }
+
+    /** Creates a sorter for numerical values. */
+    static DocumentSorter forLongs(long[] values, boolean[] isDirs, String[] ids,
+            @SortDimension.SortDirection int direction) {
+        return new DocumentSorter(isDirs, ids, direction, null, values);
+    }
+
+    /**
+     * @return The sorted permutation: element {@code i} is the index of the row that should be
+     *         at position {@code i}.
+     */
+    int[] sort() {
+        final int count = mIds.length;
+        final int[] positions = new int[count];
+        for (int i = 0; i < count; i++) {
+            positions[i] = i;
+        }
+        final int[] buffer = new int[count];
+        if (shouldRunInParallel(count)) {
+            ForkJoinPool.commonPool().invoke(new SortTask(positions, buffer, 0, count));
+        } else {
+            mergeSort(positions, buffer, 0, count);
+        }
+        return positions;
+    }
+
+    /** Stable merge sort of {@code positions[from, to)}, using {@code buffer} as scratch. */
+    private void mergeSort(int[] positions, int[] buffer, int from, int to) {
+        if (to - from <= INSERTION_SORT_THRESHOLD) {
+            insertionSort(positions, from, to);
+            return;
+        }
+
+        final int mid = (from + to) >>> 1;
+        mergeSort(positions, buffer, from, mid);
+        mergeSort(positions, buffer, mid, to);
+        merge(positions, buffer, from, mid, to);
+    }
+
+    /** Merges the sorted runs {@code positions[from, mid)} and {@code positions[mid, to)}. */
+    private void merge(int[] positions, int[] buffer, int from, int mid, int to) {
+        // Already in order, nothing to merge.
+        if (compare(positions[mid - 1], positions[mid]) <= 0) {
+            return;
+        }
+
+        System.arraycopy(positions, from, buffer, from, to - from);
+        int left = from;
+        int right = mid;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < mid && compare(buffer[left], buffer[right]) <= 0)) {
+                positions[i] = buffer[left++];
+            } else {
+                positions[i] = buffer[right++];
+            }
+        }
+    }
+
+    /**
+     * Parallel version of {@link #mergeSort}. Splits at the same midpoints, so the result is
+     * identical.
+     */
+    private final class SortTask extends RecursiveAction {
+        private final int[] mPositions;
+        private final int[] mBuffer;
+        private final int mFrom;
+        private final int mTo;
+
+        SortTask(int[] positions, int[] buffer, int from, int to) {
+            mPositions = positions;
+            mBuffer = buffer;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom <= PARALLEL_GRANULARITY) {
+                mergeSort(mPositions, mBuffer, mFrom, mTo);
+                return;
+            }
+
+            final int mid = (mFrom + mTo) >>> 1;
+            invokeAll(new SortTask(mPositions, mBuffer, mFrom, mid),
+                    new SortTask(mPositions, mBuffer, mid, mTo));
+            merge(mPositions, mBuffer, mFrom, mid, mTo);
+        }
+    }
+
+    /**
+     * Builds collation keys for a range of values. Each leaf task uses its own collator copy,
+     * since {@link Collator} instances synchronize internally.
+     */
+    private static final class KeyTask extends RecursiveAction {
+        private final String[] mValues;
+        private final CollationKey[] mKeys;
+        private final Map<String, CollationKey> mCachedKeys;
+        private final int mFrom;
+        private final int mTo;
+
+        KeyTask(String[] values, CollationKey[] keys, Map<String, CollationKey> cachedKeys,
+                int from, int to) {
+            mValues = values;
+            mKeys = keys;
+            mCachedKeys = cachedKeys;
+            mFrom = from;
+            mTo = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (mTo - mFrom <= PARALLEL_GRANULARITY) {
+                buildKeys(Shared.newCollator(), mValues, mKeys, mCachedKeys, mFrom, mTo);
+                return;
+            }
+
+            final int mid = (mFrom + mTo) >>> 1;
+            invokeAll(new KeyTask(mValues, mKeys, mCachedKeys, mFrom, mid),
+                    new KeyTask(mValues, mKeys, mCachedKeys, mid, mTo));
+        }
+    }
+
+    private void insertionSort(int[] positions, int from, int to) {
+        for (int i = from + 1; i < to; i++) {
+            final int pivot = positions[i];
+            int j = i - 1;
+            while (j >= from && compare(positions[j], pivot) > 0) {
+                positions[j + 1] = positions[j];
+                j--;
+            }
+            positions[j + 1] = pivot;
+        }
+    }
+
+    /** Compares two rows by their indices. */
+    int compare(int lhs, int rhs) {
+        return compare(lhs, this, rhs);
+    }
+
+    /**
+     * Compares a row of this sorter with a row of {@code other}, which must have been created
+     * for the same dimension and direction. Used to merge rows sorted separately.
+     */
+    int compare(int lhs, DocumentSorter other, int rhs) {
+        // Directories always go in front.
+        final boolean lhsIsDir = mIsDirs[lhs];
+        if (lhsIsDir != other.mIsDirs[rhs]) {
+            return lhsIsDir ? -1 : 1;
+        }
+
+        int compare = mDirectionSign * (mStringKeys != null
+                ? compareKeys(mStringKeys[lhs], other.mStringKeys[rhs])
+                : Long.compare(mLongKeys[lhs], other.mLongKeys[rhs]));
+
+        // Use document ID as a tie breaker to achieve stable sort result, even if incoming items
+        // are continually shuffling and have identical sort keys (e.g. active downloads sorted by
+        // mod time).
+        if (compare == 0) {
+            compare = compareIds(mIds[lhs], other.mIds[rhs]);
+        }
+        return compare;
+    }
+
+    private static int compareKeys(CollationKey lhs, CollationKey rhs) {
+        if (lhs == null) {
+            return (rhs == null) ? 0 : -1;
+        }
+        return (rhs == null) ? 1 : lhs.compareTo(rhs);
+    }
+
+    private static int compareIds(String lhs, String rhs) {
+        if (lhs == null) {
+            return (rhs == null) ? 0 : -1;
+        }
+        return (rhs == null) ? 1 : lhs.compareTo(rhs);
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.blabla.documentsui.sorting;
+
+import java.text.CollationKey;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps the collation keys of the strings sorted last, so that sorting a reloaded listing only
+ * builds keys for the names that weren't there before. Building a key is by far the most
+ * expensive part of sorting by string, and a reload usually leaves most names unchanged.
+ *
+ * <p>Only the keys of the last sort are kept, so the cache never outgrows the listing.
+ */
+public final class SortKeyCache {
+
+    private volatile Map<String, CollationKey> mKeys = Collections.emptyMap();
+
+    /** Returns the keys of the last sort. The map must not be modified. */
+    Map<String, CollationKey> getKeys() {
+        return mKeys;
+    }
+
+    /** Replaces the cached keys with the keys of a sort, {@code keys[i]} being that of values[i]. */
+    void setKeys(String[] values, CollationKey[] keys) {
+        final Map<String, CollationKey> map = new HashMap<>(values.length * 4 / 3 + 1);
+        for (int i = 0; i < values.length; i++) {
+            if (keys[i] != null) {
+                map.put(values[i], keys[i]);
+            }
+        }
+        mKeys = map;
+    }
+
+    /** Drops all cached keys. */
+    public void clear() {
+        mKeys = Collections.emptyMap();
+    }
+}
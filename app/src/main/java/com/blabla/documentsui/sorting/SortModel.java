@@ -32,12 +32,14 @@ import androidx.annotation.IntDef;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 
+import com.blabla.documentsui.DocumentTable;
 import com.blabla.documentsui.base.Lookup;
 import com.blabla.documentsui.sorting.SortDimension.SortDirection;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.List;
 import java.util.function.Consumer;
@@ -228,52 +230,80 @@ public class SortModel implements Parcelable {
     }
 
     public Cursor sortCursor(Cursor cursor, Lookup<String, String> fileTypesMap) {
+        return sortCursor(cursor, fileTypesMap, /* keyCache= */ null);
+    }
+
+    /**
+     * Same as {@link #sortCursor(Cursor, Lookup)}, reusing the sort keys kept by {@code keyCache}
+     * from the previous sort of the same listing.
+     */
+    public Cursor sortCursor(Cursor cursor, Lookup<String, String> fileTypesMap,
+            @Nullable SortKeyCache keyCache) {
         if (mSortedDimension != null) {
-            return new SortingCursorWrapper(cursor, mSortedDimension, fileTypesMap);
+            return new SortingCursorWrapper(cursor, mSortedDimension, fileTypesMap, keyCache);
         } else {
             return cursor;
         }
     }
 
+    /**
+     * Computes the order of an already loaded table under the current sort dimension, so a sort
+     * change doesn't have to query the provider again.
+     *
+     * @return the new row order (see {@link DocumentTable#reorder(int[])}), or null if there is
+     *         no sorted dimension.
+     */
+    public @Nullable int[] sortTable(DocumentTable table, Lookup<String, String> fileTypesMap,
+            @Nullable SortKeyCache keyCache) {
+        if (mSortedDimension == null) {
+            return null;
+        }
+        final DocumentSorter sorter =
+                DocumentSorter.forTable(table, mSortedDimension, fileTypesMap, keyCache);
+        return (sorter != null) ? sorter.sort() : null;
+    }
+
+    /**
+     * Returns whether a provider ordered the rows of a query as asked by the sort arguments that
+     * {@link #addQuerySortArgs(Bundle)} added to {@code queryArgs}, as told by the
+     * {@link ContentResolver#EXTRA_HONORED_ARGS} of the results.
+     */
+    public static boolean isSortedByProvider(Bundle queryArgs, @Nullable Bundle extras) {
+        if (extras == null || !queryArgs.containsKey(ContentResolver.QUERY_ARG_SORT_COLUMNS)) {
+            return false;
+        }
+        final String[] honoredArgs = extras.getStringArray(ContentResolver.EXTRA_HONORED_ARGS);
+        if (honoredArgs == null) {
+            return false;
+        }
+        final List<String> honored = Arrays.asList(honoredArgs);
+        return honored.contains(ContentResolver.QUERY_ARG_SORT_COLUMNS)
+                && (!queryArgs.containsKey(ContentResolver.QUERY_ARG_SORT_DIRECTION)
+                        || honored.contains(ContentResolver.QUERY_ARG_SORT_DIRECTION));
+    }
+
+    /**
+     * Same as {@link #sortCursor(Cursor, Lookup, SortKeyCache)} for a cursor the provider already
+     * sorted, see {@link #isSortedByProvider}. The rows keep their order, only directories are
+     * moved before other documents.
+     */
+    public Cursor sortPresortedCursor(Cursor cursor) {
+        return (mSortedDimension != null)
+                ? SortingCursorWrapper.directoriesFirst(cursor)
+                : cursor;
+    }
+
     public void addQuerySortArgs(Bundle queryArgs) {
         // should only be called when R.bool.feature_content_paging is true
 
         final int id = getSortedDimensionId();
-        if (id == SORT_DIMENSION_ID_UNKNOWN) {
+        final String columnName = getSortColumnName(id);
+        if (columnName == null) {
             return;
-        } else if (id == SortModel.SORT_DIMENSION_ID_TITLE) {
-            queryArgs.putStringArray(
-                    ContentResolver.QUERY_ARG_SORT_COLUMNS,
-                    new String[]{ Document.COLUMN_DISPLAY_NAME });
         }
-//        switch (id) {
-//            case SORT_DIMENSION_ID_UNKNOWN:
-//                return;
-//            case SortModel.SORT_DIMENSION_ID_TITLE:
-//                queryArgs.putStringArray(
-//                        ContentResolver.QUERY_ARG_SORT_COLUMNS,
-//                        new String[]{ Document.COLUMN_DISPLAY_NAME });
-//                break;
-//            case SortModel.SORT_DIMENSION_ID_DATE:
-//                queryArgs.putStringArray(
-//                        ContentResolver.QUERY_ARG_SORT_COLUMNS,
-//                        new String[]{ Document.COLUMN_LAST_MODIFIED });
-//                break;
-//            case SortModel.SORT_DIMENSION_ID_SIZE:
-//                queryArgs.putStringArray(
-//                        ContentResolver.QUERY_ARG_SORT_COLUMNS,
-//                        new String[]{ Document.COLUMN_SIZE });
-//                break;
-//            case SortModel.SORT_DIMENSION_ID_FILE_TYPE:
-//                // Unfortunately sorting by mime type is pretty much guaranteed different from
-//                // sorting by user-friendly type, so there is no point to guide the provider to sort
-//                // in a particular order.
-//                return;
-//            default:
-//                throw new IllegalStateException(
-//                        "Unexpected sort dimension id: " + id);
-//        }
-//
+        queryArgs.putStringArray(
+                ContentResolver.QUERY_ARG_SORT_COLUMNS, new String[]{ columnName });
+
         final SortDimension dimension = getDimensionById(id);
         switch (dimension.getSortDirection()) {
             case SortDimension.SORT_DIRECTION_ASCENDING:
@@ -302,27 +332,9 @@ public class SortModel implements Parcelable {
         int readTheCommentAbove = R.bool.feature_content_paging;
 
         final int id = getSortedDimensionId();
-        final String columnName;
-        switch (id) {
-            case SORT_DIMENSION_ID_UNKNOWN:
-                return null;
-            case SortModel.SORT_DIMENSION_ID_TITLE:
-                columnName = Document.COLUMN_DISPLAY_NAME;
-                break;
-//            case SortModel.SORT_DIMENSION_ID_DATE:
-//                columnName = Document.COLUMN_LAST_MODIFIED;
-//                break;
-//            case SortModel.SORT_DIMENSION_ID_SIZE:
-//                columnName = Document.COLUMN_SIZE;
-//                break;
-//            case SortModel.SORT_DIMENSION_ID_FILE_TYPE:
-                // Unfortunately sorting by mime type is pretty much guaranteed different from
-                // sorting by user-friendly type, so there is no point to guide the provider to sort
-                // in a particular order.
-//                return null;
-            default:
-                throw new IllegalStateException(
-                        "Unexpected sort dimension id: " + id);
+        final String columnName = getSortColumnName(id);
+        if (columnName == null) {
+            return null;
         }
 
         final SortDimension dimension = getDimensionById(id);
@@ -342,6 +354,31 @@ public class SortModel implements Parcelable {
         return columnName + direction;
     }
 
+    /**
+     * Returns the column a provider sorts by for the given dimension, or null if the provider
+     * can't sort the way we do.
+     */
+    private static @Nullable String getSortColumnName(@SortDimensionId int id) {
+        // Resource IDs aren't constant expressions, so they can't be switched on.
+        if (id == SORT_DIMENSION_ID_UNKNOWN) {
+            return null;
+        } else if (id == SortModel.SORT_DIMENSION_ID_TITLE) {
+            return Document.COLUMN_DISPLAY_NAME;
+        } else if (id == SortModel.SORT_DIMENSION_ID_DATE) {
+            return Document.COLUMN_LAST_MODIFIED;
+        } else if (id == SortModel.SORT_DIMENSION_ID_SIZE) {
+            return Document.COLUMN_SIZE;
+        } else if (id == SortModel.SORT_DIMENSION_ID_FILE_TYPE) {
+            // Unfortunately sorting by mime type is pretty much guaranteed different from
+            // sorting by user-friendly type, so there is no point to guide the provider to sort
+            // in a particular order.
+            return null;
+        } else {
+            throw new IllegalStateException(
+                    "Unexpected sort dimension id: " + id);
+        }
+    }
+
     private void notifyListeners(@UpdateType int updateType) {
         for (int i = mListeners.size() - 1; i >= 0; --i) {
             mListeners.get(i).onModelUpdate(this, updateType);
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2024 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.blabla.documentsui.sorting;
+
+import android.os.Bundle;
+
+import androidx.annotation.Nullable;
+
+import com.blabla.documentsui.DocumentTable;
+import com.blabla.documentsui.base.Lookup;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Merges the rows of several sources, e.g. the roots queried for Recents, into one sorted table.
+ * The rows of a source are sorted once when the source is added, with sort keys of its own, and
+ * the sorted runs of all sources are then merged. A source that is added late only costs sorting
+ * its own rows and a merge, rather than sorting all rows again.
+ *
+ * <p>Sources are told apart by identity. Not thread safe, the caller has to serialize access.
+ */
+public final class SortedRunMerger {
+
+    private final SortModel mSortModel;
+    private final Lookup<String, String> mFileTypeLookup;
+    private final Map<Object, Run> mRuns = new HashMap<>();
+
+    public SortedRunMerger(SortModel sortModel, Lookup<String, String> fileTypeLookup) {
+        mSortModel = sortModel;
+        mFileTypeLookup = fileTypeLookup;
+    }
+
+    /** Returns whether the rows of {@code source} have been added already. */
+    public boolean contains(Object source) {
+        return mRuns.containsKey(source);
+    }
+
+    /** Adds the rows of a source. They are sorted on the next {@link #merge}. */
+    public void add(Object source, DocumentTable table) {
+        mRuns.put(source, new Run(table));
+    }
+
+    /**
+     * Returns the rows of {@code sources} in the current sort order. Sources that are not listed
+     * are dropped. Runs are only sorted again if the sort order changed since they were sorted.
+     *
+     * @param extras the extras of the returned table
+     */
+    public DocumentTable merge(List<?> sources, @Nullable Bundle extras) {
+        mRuns.keySet().retainAll(sources);
+
+        final SortDimension dimension = mSortModel.getDimensionById(
+                mSortModel.getSortedDimensionId());
+        final List<Run> runs = new ArrayList<>(sources.size());
+        final List<DocumentTable> tables = new ArrayList<>(sources.size());
+        for (Object source : sources) {
+            final Run run = mRuns.get(source);
+            if (run == null) {
+                continue;
+            }
+            run.sort(dimension, mFileTypeLookup);
+            runs.add(run);
+            tables.add(run.mTable);
+        }
+
+        // All rows one source after the other, to be put in order below.
+        final DocumentTable table = DocumentTable.concat(tables, extras);
+        if (runs.isEmpty() || runs.get(0).mSorter == null) {
+            // No sort order, keep the rows of each source in their order.
+            return table;
+        }
+        if (runs.size() == 1) {
+            return table.reorder(runs.get(0).mOrder);
+        }
+
+        final int[] order = new int[table.getCount()];
+        int offset = 0;
+        for (Run run : runs) {
+            run.mOffset = offset;
+            offset += run.mTable.getCount();
+        }
+
+        // Pick the smallest head among the runs, log(k) comparisons a row.
+        final PriorityQueue<Run> heads = new PriorityQueue<>(runs.size(),
+                (lhs, rhs) -> lhs.mSorter.compare(lhs.head(), rhs.mSorter, rhs.head()));
+        for (Run run : runs) {
+            run.mNext = 0;
+            if (run.hasNext()) {
+                heads.add(run);
+            }
+        }
+        int row = 0;
+        while (!heads.isEmpty()) {
+            final Run run = heads.poll();
+            order[row++] = run.mOffset + run.head();
+            run.mNext++;
+            if (run.hasNext()) {
+                heads.add(run);
+            }
+        }
+        return table.reorder(order);
+    }
+
+    /** Drops all sources. */
+    public void clear() {
+        mRuns.clear();
+    }
+
+    /** The rows of one source, with their order under the dimension they were sorted by last. */
+    private static final class Run {
+        private final DocumentTable mTable;
+        private final SortKeyCache mKeys = new SortKeyCache();
+
+        private int mDimensionId = SortModel.SORT_DIMENSION_ID_UNKNOWN;
+        private int mDirection = SortDimension.SORT_DIRECTION_NONE;
+        private boolean mSorted;
+        private @Nullable DocumentSorter mSorter;
+        private @Nullable int[] mOrder;
+
+        // Merge state, see #merge.
+        private int mOffset;
+        private int mNext;
+
+        private Run(DocumentTable table) {
+            mTable = table;
+        }
+
+        private void sort(@Nullable SortDimension dimension,
+                Lookup<String, String> fileTypeLookup) {
+            final int dimensionId = (dimension != null)
+                    ? dimension.getId() : SortModel.SORT_DIMENSION_ID_UNKNOWN;
+            final int direction = (dimension != null)
+                    ? dimension.getSortDirection() : SortDimension.SORT_DIRECTION_NONE;
+            if (mSorted && dimensionId == mDimensionId && direction == mDirection) {
+                return;
+            }
+            mSorter = (dimension != null && direction != SortDimension.SORT_DIRECTION_NONE)
+                    ? DocumentSorter.forTable(mTable, dimension, fileTypeLookup, mKeys)
+                    : null;
+            mOrder = (mSorter != null) ? mSorter.sort() : null;
+            mDimensionId = dimensionId;
+            mDirection = direction;
+            mSorted = true;
+        }
+
+        private boolean hasNext() {
+            return mNext < mTable.getCount();
+        }
+
+        // Row of the table at the current merge position.
+        private int head() {
+            return (mOrder != null) ? mOrder[mNext] : mNext;
+        }
+    }
+}
@@ -16,18 +16,15 @@
 
 package com.blabla.documentsui.sorting;
 
-import static com.blabla.documentsui.base.DocumentInfo.getCursorLong;
-import static com.blabla.documentsui.base.DocumentInfo.getCursorString;
-
 import android.database.AbstractCursor;
 import android.database.ContentObserver;
 import android.database.Cursor;
 import android.os.Bundle;
 import android.provider.DocumentsContract.Document;
 
-import com.blabla.documentsui.R;
+import androidx.annotation.Nullable;
+
 import com.blabla.documentsui.base.Lookup;
-import com.blabla.documentsui.base.Shared;
 import com.blabla.documentsui.sorting.SortModel.SortDimensionId;
 
 /**
@@ -39,12 +36,11 @@ class SortingCursorWrapper extends AbstractCursor {
 
     private final int[] mPosition;
 
-    public SortingCursorWrapper(
-            Cursor cursor, SortDimension dimension, Lookup<String, String> fileTypeLookup) {
+    public SortingCursorWrapper(Cursor cursor, SortDimension dimension,
+            Lookup<String, String> fileTypeLookup, @Nullable SortKeyCache keyCache) {
         mCursor = cursor;
 
         final int count = cursor.getCount();
-        mPosition = new int[count];
         boolean[] isDirs = new boolean[count];
         String[] stringValues = null;
         long[] longValues = null;
@@ -56,73 +52,77 @@ class SortingCursorWrapper extends AbstractCursor {
         } else if (id == SortModel.SORT_DIMENSION_ID_DATE || id == SortModel.SORT_DIMENSION_ID_SIZE) {
             longValues = new long[count];
         }
-//        switch (id) {
-//            case SortModel.SORT_DIMENSION_ID_TITLE:
-//            case SortModel.SORT_DIMENSION_ID_FILE_TYPE:
-//                stringValues = new String[count];
-//                break;
-//            case SortModel.SORT_DIMENSION_ID_DATE:
-//            case SortModel.SORT_DIMENSION_ID_SIZE:
-//                longValues = new long[count];
-//                break;
-//        }
+
+        // Resolve column indices once rather than for every row.
+        final int mimeTypeIndex = cursor.getColumnIndex(Document.COLUMN_MIME_TYPE);
+        final int documentIdIndex = cursor.getColumnIndex(Document.COLUMN_DOCUMENT_ID);
+        final int displayNameIndex = cursor.getColumnIndex(Document.COLUMN_DISPLAY_NAME);
+        final int lastModifiedIndex = cursor.getColumnIndex(Document.COLUMN_LAST_MODIFIED);
+        final int sizeIndex = cursor.getColumnIndex(Document.COLUMN_SIZE);
 
         cursor.moveToPosition(-1);
         for (int i = 0; i < count; i++) {
             cursor.moveToNext();
-            mPosition[i] = i;
 
-            final String mimeType = getCursorString(mCursor, Document.COLUMN_MIME_TYPE);
+            final String mimeType = getString(mCursor, mimeTypeIndex);
             isDirs[i] = Document.MIME_TYPE_DIR.equals(mimeType);
-            ids[i] = getCursorString(mCursor, Document.COLUMN_DOCUMENT_ID);
+            ids[i] = getString(mCursor, documentIdIndex);
 
             if (id == SortModel.SORT_DIMENSION_ID_TITLE) {
-                final String displayName = getCursorString(
-                        mCursor, Document.COLUMN_DISPLAY_NAME);
-                stringValues[i] = displayName;
+                stringValues[i] = getString(mCursor, displayNameIndex);
             } else if (id == SortModel.SORT_DIMENSION_ID_DATE) {
-                longValues[i] = getLastModified(mCursor);
+                longValues[i] = getLastModified(mCursor, lastModifiedIndex);
             } else if (id == SortModel.SORT_DIMENSION_ID_FILE_TYPE) {
                 stringValues[i] = fileTypeLookup.lookup(mimeType);
             } else if (id == SortModel.SORT_DIMENSION_ID_SIZE) {
-                longValues[i] = getCursorLong(mCursor, Document.COLUMN_SIZE);
-            } else {
+                longValues[i] = getLong(mCursor, sizeIndex);
             }
-//            switch(id) {
-//                case SortModel.SORT_DIMENSION_ID_TITLE:
-//                    final String displayName = getCursorString(
-//                            mCursor, Document.COLUMN_DISPLAY_NAME);
-//                    stringValues[i] = displayName;
-//                    break;
-//                case SortModel.SORT_DIMENSION_ID_FILE_TYPE:
-//                    stringValues[i] = fileTypeLookup.lookup(mimeType);
-//                    break;
-//                case SortModel.SORT_DIMENSION_ID_DATE:
-//                    longValues[i] = getLastModified(mCursor);
-//                    break;
-//                case SortModel.SORT_DIMENSION_ID_SIZE:
-//                    longValues[i] = getCursorLong(mCursor, Document.COLUMN_SIZE);
-//                    break;
-//            }
+        }
 
+        if (stringValues != null) {
+            mPosition = DocumentSorter.forStrings(
+                    stringValues, isDirs, ids, dimension.getSortDirection(), keyCache).sort();
+        } else if (longValues != null) {
+            mPosition = DocumentSorter.forLongs(
+                    longValues, isDirs, ids, dimension.getSortDirection()).sort();
+        } else {
+            mPosition = new int[count];
+            for (int i = 0; i < count; i++) {
+                mPosition[i] = i;
+            }
         }
+    }
 
-        if (id == SortModel.SORT_DIMENSION_ID_TITLE || id == SortModel.SORT_DIMENSION_ID_FILE_TYPE) {
-            binarySort(stringValues, isDirs, mPosition, ids, dimension.getSortDirection());
-        } else if (id == SortModel.SORT_DIMENSION_ID_DATE || id == SortModel.SORT_DIMENSION_ID_SIZE) {
-            binarySort(longValues, isDirs, mPosition, ids, dimension.getSortDirection());
+    private SortingCursorWrapper(Cursor cursor, int[] position) {
+        mCursor = cursor;
+        mPosition = position;
+    }
+
+    /**
+     * Creates a wrapper for a cursor the provider already sorted, that only moves directories
+     * before other documents. Both keep their order otherwise. Only the mime types are read.
+     */
+    static SortingCursorWrapper directoriesFirst(Cursor cursor) {
+        final int count = cursor.getCount();
+        final int mimeTypeIndex = cursor.getColumnIndex(Document.COLUMN_MIME_TYPE);
+        final boolean[] isDirs = new boolean[count];
+        int dirCount = 0;
+        cursor.moveToPosition(-1);
+        for (int i = 0; i < count; i++) {
+            cursor.moveToNext();
+            isDirs[i] = Document.MIME_TYPE_DIR.equals(getString(cursor, mimeTypeIndex));
+            if (isDirs[i]) {
+                dirCount++;
+            }
         }
-//        switch (id) {
-//            case SortModel.SORT_DIMENSION_ID_TITLE:
-//            case SortModel.SORT_DIMENSION_ID_FILE_TYPE:
-//                binarySort(stringValues, isDirs, mPosition, ids, dimension.getSortDirection());
-//                break;
-//            case SortModel.SORT_DIMENSION_ID_DATE:
-//            case SortModel.SORT_DIMENSION_ID_SIZE:
-//                binarySort(longValues, isDirs, mPosition, ids, dimension.getSortDirection());
-//                break;
-//        }
 
+        final int[] position = new int[count];
+        int nextDir = 0;
+        int nextDoc = dirCount;
+        for (int i = 0; i < count; i++) {
+            position[isDirs[i] ? nextDir++ : nextDoc++] = i;
+        }
+        return new SortingCursorWrapper(cursor, position);
     }
 
     @Override
@@ -201,182 +201,31 @@ class SortingCursorWrapper extends AbstractCursor {
         mCursor.unregisterContentObserver(observer);
     }
 
-    /**
-     * @return Timestamp for the given document. Some docs (e.g. active downloads) have a null
-     * timestamp - these will be replaced with MAX_LONG so that such files get sorted to the top
-     * when sorting descending by date.
-     */
-    private static long getLastModified(Cursor cursor) {
-        long l = getCursorLong(cursor, Document.COLUMN_LAST_MODIFIED);
-        return (l == -1) ? Long.MAX_VALUE : l;
+    private static String getString(Cursor cursor, int index) {
+        return (index != -1) ? cursor.getString(index) : null;
     }
 
     /**
-     * Borrowed from TimSort.binarySort(), but modified to sort two column
-     * dataset.
+     * Same as {@link com.blabla.documentsui.base.DocumentInfo#getCursorLong}, with the column
+     * index already resolved. Missing or null values are returned as -1.
      */
-    private static void binarySort(
-            String[] sortKey,
-            boolean[] isDirs,
-            int[] positions,
-            String[] ids,
-            @SortDimension.SortDirection int direction) {
-        final int count = positions.length;
-        for (int start = 1; start < count; start++) {
-            final int pivotPosition = positions[start];
-            final String pivotValue = sortKey[start];
-            final boolean pivotIsDir = isDirs[start];
-            final String pivotId = ids[start];
-
-            int left = 0;
-            int right = start;
-
-            while (left < right) {
-                int mid = (left + right) >>> 1;
-
-                // Directories always go in front.
-                int compare = 0;
-                final boolean rhsIsDir = isDirs[mid];
-                if (pivotIsDir && !rhsIsDir) {
-                    compare = -1;
-                } else if (!pivotIsDir && rhsIsDir) {
-                    compare = 1;
-                } else {
-                    final String lhs = pivotValue;
-                    final String rhs = sortKey[mid];
-                    switch (direction) {
-                        case SortDimension.SORT_DIRECTION_ASCENDING:
-                            compare = Shared.compareToIgnoreCaseNullable(lhs, rhs);
-                            break;
-                        case SortDimension.SORT_DIRECTION_DESCENDING:
-                            compare = -Shared.compareToIgnoreCaseNullable(lhs, rhs);
-                            break;
-                        default:
-                            throw new IllegalArgumentException(
-                                    "Unknown sorting direction: " + direction);
-                    }
-                }
-
-                // Use document ID as a tie breaker to achieve stable sort result.
-                if (compare == 0) {
-                    compare = pivotId.compareTo(ids[mid]);
-                }
-
-                if (compare < 0) {
-                    right = mid;
-                } else {
-                    left = mid + 1;
-                }
-            }
-
-            int n = start - left;
-            switch (n) {
-                case 2:
-                    positions[left + 2] = positions[left + 1];
-                    sortKey[left + 2] = sortKey[left + 1];
-                    isDirs[left + 2] = isDirs[left + 1];
-                case 1:
-                    positions[left + 1] = positions[left];
-                    sortKey[left + 1] = sortKey[left];
-                    isDirs[left + 1] = isDirs[left];
-                    break;
-                default:
-                    System.arraycopy(positions, left, positions, left + 1, n);
-                    System.arraycopy(sortKey, left, sortKey, left + 1, n);
-                    System.arraycopy(isDirs, left, isDirs, left + 1, n);
-            }
-
-            positions[left] = pivotPosition;
-            sortKey[left] = pivotValue;
-            isDirs[left] = pivotIsDir;
+    private static long getLong(Cursor cursor, int index) {
+        final String value = getString(cursor, index);
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return -1;
         }
     }
 
     /**
-     * Borrowed from TimSort.binarySort(), but modified to sort two column
-     * dataset.
+     * @return Timestamp for the given document. Some docs (e.g. active downloads) have a null
+     * timestamp - these will be replaced with MAX_LONG so that such files get sorted to the top
+     * when sorting descending by date.
      */
-    private static void binarySort(
-            long[] sortKey,
-            boolean[] isDirs,
-            int[] positions,
-            String[] ids,
-            @SortDimension.SortDirection int direction) {
-        final int count = positions.length;
-        for (int start = 1; start < count; start++) {
-            final int pivotPosition = positions[start];
-            final long pivotValue = sortKey[start];
-            final boolean pivotIsDir = isDirs[start];
-            final String pivotId = ids[start];
-
-            int left = 0;
-            int right = start;
-
-            while (left < right) {
-                int mid = ((left + right) >>> 1);
-
-                // Directories always go in front.
-                int compare = 0;
-                final boolean rhsIsDir = isDirs[mid];
-                if (pivotIsDir && !rhsIsDir) {
-                    compare = -1;
-                } else if (!pivotIsDir && rhsIsDir) {
-                    compare = 1;
-                } else {
-                    final long lhs = pivotValue;
-                    final long rhs = sortKey[mid];
-                    switch (direction) {
-                        case SortDimension.SORT_DIRECTION_ASCENDING:
-                            compare = Long.compare(lhs, rhs);
-                            break;
-                        case SortDimension.SORT_DIRECTION_DESCENDING:
-                            compare = -Long.compare(lhs, rhs);
-                            break;
-                        default:
-                            throw new IllegalArgumentException(
-                                    "Unknown sorting direction: " + direction);
-                    }
-                }
-
-                // If numerical comparison yields a tie, use document ID as a tie breaker.  This
-                // will yield stable results even if incoming items are continually shuffling and
-                // have identical numerical sort keys.  One common example of this scenario is seen
-                // when sorting a set of active downloads by mod time.
-                if (compare == 0) {
-                    compare = pivotId.compareTo(ids[mid]);
-                }
-
-                if (compare < 0) {
-                    right = mid;
-                } else {
-                    left = mid + 1;
-                }
-            }
-
-            int n = start - left;
-            switch (n) {
-                case 2:
-                    positions[left + 2] = positions[left + 1];
-                    sortKey[left + 2] = sortKey[left + 1];
-                    isDirs[left + 2] = isDirs[left + 1];
-                    ids[left + 2] = ids[left + 1];
-                case 1:
-                    positions[left + 1] = positions[left];
-                    sortKey[left + 1] = sortKey[left];
-                    isDirs[left + 1] = isDirs[left];
-                    ids[left + 1] = ids[left];
-                    break;
-                default:
-                    System.arraycopy(positions, left, positions, left + 1, n);
-                    System.arraycopy(sortKey, left, sortKey, left + 1, n);
-                    System.arraycopy(isDirs, left, isDirs, left + 1, n);
-                    System.arraycopy(ids, left, ids, left + 1, n);
-            }
-
-            positions[left] = pivotPosition;
-            sortKey[left] = pivotValue;
-            isDirs[left] = pivotIsDir;
-            ids[left] = pivotId;
-        }
+    private static long getLastModified(Cursor cursor, int index) {
+        long l = getLong(cursor, index);
+        return (l == -1) ? Long.MAX_VALUE : l;
     }
 }